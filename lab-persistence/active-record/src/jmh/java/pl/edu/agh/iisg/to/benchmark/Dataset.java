@@ -0,0 +1,140 @@
+package pl.edu.agh.iisg.to.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import pl.edu.agh.iisg.to.cache.IdentityMaps;
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.model.Course;
+import pl.edu.agh.iisg.to.model.Student;
+import pl.edu.agh.iisg.to.schema.SchemaManager;
+
+/**
+ * A temporary SQLite file seeded with {@code rows} students, each enrolled in one of {@link #COURSES} courses.
+ * Student ids and index numbers both run from 1 to {@code rows}. Rows written by the benchmarks are deleted after
+ * every iteration, so all iterations measure the same data size.
+ */
+@State(Scope.Benchmark)
+public class Dataset {
+
+    static final int COURSES = 100;
+
+    // students kept in memory as enrolment candidates, so enrollStudent does not measure a lookup as well
+    private static final int ENROLLING_STUDENTS = 10_000;
+
+    private static final String SEED_STUDENTS_SQL =
+            "INSERT INTO student (first_name, last_name, index_number) " +
+            "WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < ?) " +
+            "SELECT 'Jan', 'Kowalski ' || n, n FROM seq";
+
+    private static final String SEED_COURSES_SQL =
+            "INSERT INTO course (name) " +
+            "WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < ?) " +
+            "SELECT 'Course ' || n FROM seq";
+
+    private static final String SEED_ENROLLMENTS_SQL =
+            "INSERT INTO student_course (student_id, course_id) SELECT id, 1 + id % ? FROM student";
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private Path directory;
+
+    private List<Course> courses;
+
+    private List<Student> enrolling;
+
+    private final AtomicInteger nextIndexNumber = new AtomicInteger();
+
+    private final AtomicLong nextEnrollment = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void seed() throws IOException, SQLException {
+        directory = Files.createTempDirectory("active_record_benchmark");
+        ConnectionProvider.init("jdbc:sqlite:" + directory.resolve("benchmark.db"));
+        // every lookup goes to the database instead of being answered by the identity map
+        IdentityMaps.configure(IdentityMaps.Scope.NONE, 0);
+
+        SchemaManager.dropSecondaryIndexes();
+        SchemaManager.dropSearchTriggers();
+        QueryExecutor.create(SEED_STUDENTS_SQL, rows);
+        QueryExecutor.create(SEED_COURSES_SQL, COURSES);
+        QueryExecutor.create(SEED_ENROLLMENTS_SQL, COURSES);
+        SchemaManager.createSecondaryIndexes();
+        SchemaManager.rebuildSearchIndex();
+
+        courses = new ArrayList<>(Course.findByIds(range(COURSES)).values());
+        courses.sort(Comparator.comparingInt(Course::id));
+        enrolling = new ArrayList<>(Student.findByIds(range(Math.min(rows, ENROLLING_STUDENTS))).values());
+        nextIndexNumber.set(rows + 1);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeWrites() throws SQLException {
+        QueryExecutor.delete("DELETE FROM student_course WHERE id > ?", rows);
+        QueryExecutor.delete("DELETE FROM student WHERE id > ?", rows);
+        nextIndexNumber.set(rows + 1);
+        nextEnrollment.set(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException, SQLException {
+        ConnectionProvider.close();
+        IdentityMaps.configure(IdentityMaps.Scope.GLOBAL, IdentityMaps.DEFAULT_CAPACITY);
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    int randomId() {
+        return ThreadLocalRandom.current().nextInt(rows) + 1;
+    }
+
+    Course randomCourse() {
+        return courses.get(ThreadLocalRandom.current().nextInt(courses.size()));
+    }
+
+    int nextIndexNumber() {
+        return nextIndexNumber.getAndIncrement();
+    }
+
+    /**
+     * Enrols the candidates in the courses they are not seeded into, one (student, course) pair per call; the pairs
+     * only repeat after every candidate went through all other courses within one iteration.
+     */
+    boolean enrollNext() {
+        long enrollment = nextEnrollment.getAndIncrement();
+        Student student = enrolling.get((int) (enrollment % enrolling.size()));
+        long round = enrollment / enrolling.size() % (COURSES - 1);
+        // the seeded course of student s is (s mod COURSES) + 1, the skipped one
+        int courseId = 1 + (int) ((student.id() + 1 + round) % COURSES);
+        return courses.get(courseId - 1).enrollStudent(student);
+    }
+
+    private static List<Integer> range(final int count) {
+        List<Integer> ids = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,11 @@
+package pl.edu.agh.iisg.to.benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Readers share the reader pool while writers queue for the single writer connection, so the write benchmarks
+ * here mostly show the cost of that contention.
+ */
+@Threads(4)
+public class MultiThreadBenchmark extends PersistenceBenchmark {
+}
@@ -0,0 +1,54 @@
+package pl.edu.agh.iisg.to.benchmark;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pl.edu.agh.iisg.to.model.Student;
+
+/**
+ * The persistence paths of the model, measured on a {@link Dataset} of each size. The subclasses only choose the
+ * number of threads calling them at once.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class PersistenceBenchmark {
+
+    @Benchmark
+    public Optional<Student> createStudent(final Dataset dataset) {
+        int indexNumber = dataset.nextIndexNumber();
+        return Student.create("Adam", "Nowak " + indexNumber, indexNumber);
+    }
+
+    @Benchmark
+    public Optional<Student> findById(final Dataset dataset) {
+        return Student.findById(dataset.randomId());
+    }
+
+    @Benchmark
+    public Optional<Student> findByIndexNumber(final Dataset dataset) {
+        return Student.findByIndexNumber(dataset.randomId());
+    }
+
+    @Benchmark
+    public boolean enrollStudent(final Dataset dataset) {
+        return dataset.enrollNext();
+    }
+
+    // each course holds rows / COURSES students
+    @Benchmark
+    public List<Student> studentList(final Dataset dataset) {
+        return dataset.randomCourse().studentList();
+    }
+}
@@ -0,0 +1,7 @@
+package pl.edu.agh.iisg.to.benchmark;
+
+import org.openjdk.jmh.annotations.Threads;
+
+@Threads(1)
+public class SingleThreadBenchmark extends PersistenceBenchmark {
+}
@@ -0,0 +1,95 @@
+package pl.edu.agh.iisg.to;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.importer.BulkImporter;
+import pl.edu.agh.iisg.to.importer.ImportReport;
+import pl.edu.agh.iisg.to.schema.SchemaManager;
+
+/**
+ * Usage: {@code BulkImport --db <file> [--students <csv>] [--courses <csv>] [--enrollments <csv>] [--grades <csv>]
+ * [--batch <rows>] [--rebuild-indexes] [--rebuild-search-index]}
+ * <p>
+ * {@code --rebuild-indexes} also suspends the student search triggers for the load; {@code --rebuild-search-index}
+ * alone, without any csv, rebuilds the search index of an existing database.
+ */
+public class BulkImport {
+
+    public static void main(String[] args) throws IOException, SQLException {
+        Map<String, String> options = parseOptions(args);
+        String db = options.getOrDefault("--db", "active_record.db");
+        int batchSize = Integer.parseInt(options.getOrDefault("--batch", String.valueOf(QueryExecutor.DEFAULT_BATCH_SIZE)));
+        boolean rebuildIndexes = options.containsKey("--rebuild-indexes");
+        boolean rebuildSearchIndex = rebuildIndexes || options.containsKey("--rebuild-search-index");
+
+        ConnectionProvider.init("jdbc:sqlite:" + db);
+        if (rebuildIndexes) {
+            SchemaManager.dropSecondaryIndexes();
+            SchemaManager.dropSearchTriggers();
+        }
+        try {
+            BulkImporter importer = new BulkImporter(batchSize);
+            // order matters: enrollments and grades resolve keys of the students and courses loaded before them
+            if (options.containsKey("--students")) {
+                try (Reader in = open(options.get("--students"))) {
+                    print(importer.importStudents(in));
+                }
+            }
+            if (options.containsKey("--courses")) {
+                try (Reader in = open(options.get("--courses"))) {
+                    print(importer.importCourses(in));
+                }
+            }
+            if (options.containsKey("--enrollments")) {
+                try (Reader in = open(options.get("--enrollments"))) {
+                    print(importer.importEnrollments(in));
+                }
+            }
+            if (options.containsKey("--grades")) {
+                try (Reader in = open(options.get("--grades"))) {
+                    print(importer.importGrades(in));
+                }
+            }
+        } finally {
+            if (rebuildIndexes) {
+                SchemaManager.createSecondaryIndexes();
+            }
+            if (rebuildSearchIndex) {
+                SchemaManager.rebuildSearchIndex();
+            }
+            ConnectionProvider.close();
+        }
+    }
+
+    private static Map<String, String> parseOptions(final String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(args[i], args[++i]);
+            } else {
+                options.put(args[i], "");
+            }
+        }
+        return options;
+    }
+
+    private static Reader open(final String path) throws IOException {
+        return Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    private static void print(final ImportReport report) {
+        System.out.println(report);
+    }
+}
@@ -0,0 +1,125 @@
+package pl.edu.agh.iisg.to.cache;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * LRU map from id (and optionally a natural key) to the single in-memory instance of an entity.
+ */
+public final class IdentityMap<T> {
+
+    private final IdentityMaps.Key<T> key;
+
+    private final int capacity;
+
+    private final LinkedHashMap<Integer, T> byId;
+
+    private final Map<Integer, Integer> idByNaturalKey = new HashMap<>();
+
+    private long generation;
+
+    IdentityMap(final IdentityMaps.Key<T> key, final int capacity) {
+        this.key = key;
+        this.capacity = capacity;
+        this.generation = key.generation();
+        this.byId = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, T> eldest) {
+                if (size() > IdentityMap.this.capacity) {
+                    forgetNaturalKey(eldest.getValue());
+                    key.recordEviction();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    public synchronized Optional<T> get(final int id) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        refresh();
+        return record(byId.get(id));
+    }
+
+    public synchronized Optional<T> getByNaturalKey(final int naturalKey) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        refresh();
+        Integer id = idByNaturalKey.get(naturalKey);
+        return record(id == null ? null : byId.get(id));
+    }
+
+    /**
+     * Registers a freshly loaded entity and returns the canonical instance for its id,
+     * which is the already mapped one if there is any.
+     */
+    public synchronized T put(final T entity) {
+        if (!isEnabled()) {
+            return entity;
+        }
+        refresh();
+        int id = key.id(entity);
+        T existing = byId.get(id);
+        if (existing != null) {
+            return existing;
+        }
+        if (key.hasNaturalKey()) {
+            Integer previousId = idByNaturalKey.put(key.naturalKey(entity), id);
+            if (previousId != null && previousId != id) {
+                byId.remove(previousId);
+            }
+        }
+        byId.put(id, entity);
+        return entity;
+    }
+
+    public synchronized void evict(final int id) {
+        T removed = byId.remove(id);
+        if (removed != null) {
+            forgetNaturalKey(removed);
+        }
+    }
+
+    public synchronized void clear() {
+        byId.clear();
+        idByNaturalKey.clear();
+    }
+
+    public synchronized int size() {
+        refresh();
+        return byId.size();
+    }
+
+    private Optional<T> record(final T entity) {
+        if (entity == null) {
+            key.recordMiss();
+            return Optional.empty();
+        }
+        key.recordHit();
+        return Optional.of(entity);
+    }
+
+    private void forgetNaturalKey(final T entity) {
+        if (key.hasNaturalKey()) {
+            idByNaturalKey.remove(key.naturalKey(entity), key.id(entity));
+        }
+    }
+
+    // invalidations bump the key's generation, so maps owned by other threads notice them lazily
+    private void refresh() {
+        long current = key.generation();
+        if (current != generation) {
+            clear();
+            generation = current;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package pl.edu.agh.iisg.to.cache;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+public final class IdentityMaps {
+
+    public enum Scope {
+        NONE,
+        SESSION,
+        GLOBAL
+    }
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    private static final List<Key<?>> keys = new CopyOnWriteArrayList<>();
+
+    private static final Map<Key<?>, IdentityMap<?>> globalMaps = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Map<Key<?>, IdentityMap<?>>> sessionMaps = new ThreadLocal<>();
+
+    private static volatile Scope scope = Scope.GLOBAL;
+
+    private static volatile int capacity = DEFAULT_CAPACITY;
+
+    private IdentityMaps() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static <T> Key<T> key(final String name, final ToIntFunction<T> id, final ToIntFunction<T> naturalKey) {
+        Key<T> key = new Key<>(name, id, naturalKey);
+        keys.add(key);
+        return key;
+    }
+
+    public static <T> Key<T> key(final String name, final ToIntFunction<T> id) {
+        return key(name, id, null);
+    }
+
+    /**
+     * @param capacity maximum number of entities kept per entity type and scope
+     */
+    public static synchronized void configure(final Scope scope, final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+        }
+        IdentityMaps.scope = scope;
+        IdentityMaps.capacity = capacity;
+        globalMaps.clear();
+        invalidateAll();
+    }
+
+    public static List<Key<?>> keys() {
+        return List.copyOf(keys);
+    }
+
+    public static Scope scope() {
+        return scope;
+    }
+
+    /**
+     * Starts a session-scoped identity map for the current thread. Only used when the scope is {@link Scope#SESSION}.
+     */
+    public static void openSession() {
+        sessionMaps.set(new HashMap<>());
+    }
+
+    public static void closeSession() {
+        sessionMaps.remove();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> IdentityMap<T> current(final Key<T> key) {
+        switch (scope) {
+            case GLOBAL:
+                return (IdentityMap<T>) globalMaps.computeIfAbsent(key, k -> new IdentityMap<>(key, capacity));
+            case SESSION:
+                Map<Key<?>, IdentityMap<?>> session = sessionMaps.get();
+                if (session != null) {
+                    return (IdentityMap<T>) session.computeIfAbsent(key, k -> new IdentityMap<>(key, capacity));
+                }
+                return key.disabled;
+            default:
+                return key.disabled;
+        }
+    }
+
+    public static void invalidate(final Key<?> key) {
+        key.generation.incrementAndGet();
+    }
+
+    public static void invalidateAll() {
+        for (Key<?> key : keys) {
+            invalidate(key);
+        }
+    }
+
+    public static final class Key<T> {
+
+        private final String name;
+
+        private final ToIntFunction<T> id;
+
+        private final ToIntFunction<T> naturalKey;
+
+        private final IdentityMap<T> disabled;
+
+        private final AtomicLong generation = new AtomicLong();
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        private final AtomicLong evictions = new AtomicLong();
+
+        private Key(final String name, final ToIntFunction<T> id, final ToIntFunction<T> naturalKey) {
+            this.name = name;
+            this.id = id;
+            this.naturalKey = naturalKey;
+            this.disabled = new IdentityMap<>(this, 0);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        int id(final T entity) {
+            return id.applyAsInt(entity);
+        }
+
+        boolean hasNaturalKey() {
+            return naturalKey != null;
+        }
+
+        int naturalKey(final T entity) {
+            return naturalKey.applyAsInt(entity);
+        }
+
+        long generation() {
+            return generation.get();
+        }
+
+        void recordHit() {
+            hits.incrementAndGet();
+        }
+
+        void recordMiss() {
+            misses.incrementAndGet();
+        }
+
+        void recordEviction() {
+            evictions.incrementAndGet();
+        }
+
+        public long hits() {
+            return hits.get();
+        }
+
+        public long misses() {
+            return misses.get();
+        }
+
+        public long evictions() {
+            return evictions.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("IdentityMap{%s: hits=%d, misses=%d, evictions=%d}",
+                    name, hits.get(), misses.get(), evictions.get());
+        }
+    }
+}
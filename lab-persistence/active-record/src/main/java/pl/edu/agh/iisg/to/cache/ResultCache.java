@@ -0,0 +1,244 @@
+package pl.edu.agh.iisg.to.cache;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.rowset.CachedRowSet;
+
+/**
+ * Bounded LRU cache of materialized query results, keyed by SQL and arguments. Every entry is tagged with the
+ * tables its query reads and remembers their versions when the query started; a write to any of those tables bumps
+ * the version (see {@link #tableChanged(String)}) and the entry is dropped on its next lookup. Entries also expire
+ * after the TTL. Queries whose tables cannot be determined are not cached.
+ * <p>
+ * Callers get their own cursor over rows shared with the cache, so the returned row sets must not be modified.
+ */
+public final class ResultCache {
+
+    // the schema prefix is dropped, e.g. "shared.course" read by a shard is versioned as the "course" written elsewhere
+    private static final Pattern READ_TABLE = Pattern.compile(
+            "\\b(?:FROM|JOIN)\\s+(?:[A-Za-z_][A-Za-z0-9_]*\\.)?([A-Za-z_][A-Za-z0-9_]*)", Pattern.CASE_INSENSITIVE);
+
+    // "FROM a, b" lists more tables than READ_TABLE finds
+    private static final Pattern COMMA_JOIN =
+            Pattern.compile("\\bFROM\\s+[\\w.]+(?:\\s+(?:AS\\s+)?\\w+)?\\s*,", Pattern.CASE_INSENSITIVE);
+
+    private static final String[] UNCACHEABLE = new String[0];
+
+    private final int maxEntries;
+
+    private final long ttlNanos;
+
+    private final LinkedHashMap<Key, CachedResult> entries;
+
+    private final Map<String, AtomicLong> tableVersions = new ConcurrentHashMap<>();
+
+    private final Map<String, String[]> tablesBySql = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong expirations = new AtomicLong();
+
+    public ResultCache(final int maxEntries, final long ttlMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Result cache size must be positive: " + maxEntries);
+        }
+        if (ttlMillis < 1) {
+            throw new IllegalArgumentException("Result cache TTL must be positive: " + ttlMillis);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, CachedResult> eldest) {
+                if (size() > ResultCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks the query up. The returned lookup holds the cached rows on a hit; on a miss it must be passed to
+     * {@link #store(Lookup, CachedRowSet)} together with the rows read afterwards.
+     */
+    public Lookup lookup(final String sql, final Object[] args) throws SQLException {
+        String[] tables = tablesBySql.computeIfAbsent(sql, ResultCache::readTables);
+        if (tables == UNCACHEABLE) {
+            return new Lookup(null, null, null);
+        }
+        Key key = new Key(sql, args);
+        long[] versions = versionsOf(tables);
+        CachedResult entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && !Arrays.equals(entry.versions, versions)) {
+                entries.remove(key);
+                invalidations.incrementAndGet();
+                entry = null;
+            } else if (entry != null && System.nanoTime() - entry.storedAt > ttlNanos) {
+                entries.remove(key);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return new Lookup(key, versions, null);
+        }
+        hits.incrementAndGet();
+        return new Lookup(key, versions, entry.view());
+    }
+
+    /**
+     * Caches the rows read for a missed lookup and returns the caller's view of them.
+     */
+    public CachedRowSet store(final Lookup lookup, final CachedRowSet rows) throws SQLException {
+        if (lookup.key == null) {
+            return rows;
+        }
+        CachedResult entry = new CachedResult(rows, lookup.versions, System.nanoTime());
+        synchronized (this) {
+            entries.put(lookup.key, entry);
+        }
+        return entry.view();
+    }
+
+    public void tableChanged(final String table) {
+        tableVersions.computeIfAbsent(table, t -> new AtomicLong()).incrementAndGet();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public ResultCacheStatistics statistics() {
+        return new ResultCacheStatistics(size(), maxEntries, hits.get(), misses.get(), evictions.get(),
+                invalidations.get(), expirations.get());
+    }
+
+    private long[] versionsOf(final String[] tables) {
+        long[] versions = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            versions[i] = tableVersions.computeIfAbsent(tables[i], t -> new AtomicLong()).get();
+        }
+        return versions;
+    }
+
+    private static String[] readTables(final String sql) {
+        if (COMMA_JOIN.matcher(sql).find()) {
+            return UNCACHEABLE;
+        }
+        List<String> tables = new ArrayList<>();
+        Matcher matcher = READ_TABLE.matcher(sql);
+        while (matcher.find()) {
+            String table = matcher.group(1).toLowerCase(Locale.ROOT);
+            if (!tables.contains(table)) {
+                tables.add(table);
+            }
+        }
+        return tables.isEmpty() ? UNCACHEABLE : tables.toArray(String[]::new);
+    }
+
+    public static final class Lookup {
+
+        private final Key key;
+
+        private final long[] versions;
+
+        private final CachedRowSet rows;
+
+        private Lookup(final Key key, final long[] versions, final CachedRowSet rows) {
+            this.key = key;
+            this.versions = versions;
+            this.rows = rows;
+        }
+
+        public boolean isHit() {
+            return rows != null;
+        }
+
+        public CachedRowSet rows() {
+            return rows;
+        }
+    }
+
+    private static final class Key {
+
+        private final String sql;
+
+        private final List<Object> args;
+
+        private final int hash;
+
+        private Key(final String sql, final Object[] args) {
+            this.sql = sql;
+            this.args = Arrays.asList(args.clone());
+            this.hash = 31 * sql.hashCode() + this.args.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && sql.equals(other.sql) && args.equals(other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class CachedResult {
+
+        private final CachedRowSet rows;
+
+        private final long[] versions;
+
+        private final long storedAt;
+
+        private CachedResult(final CachedRowSet rows, final long[] versions, final long storedAt) {
+            this.rows = rows;
+            this.versions = versions;
+            this.storedAt = storedAt;
+        }
+
+        // a shared row set has its own cursor over the same rows, no copy is made
+        private CachedRowSet view() throws SQLException {
+            CachedRowSet view;
+            synchronized (rows) {
+                view = (CachedRowSet) rows.createShared();
+            }
+            view.beforeFirst();
+            return view;
+        }
+    }
+}
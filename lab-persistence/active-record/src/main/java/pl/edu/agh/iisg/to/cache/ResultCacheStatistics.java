@@ -0,0 +1,69 @@
+package pl.edu.agh.iisg.to.cache;
+
+public final class ResultCacheStatistics {
+
+    private final int size;
+
+    private final int maxEntries;
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final long invalidations;
+
+    private final long expirations;
+
+    ResultCacheStatistics(final int size, final int maxEntries, final long hits, final long misses,
+                          final long evictions, final long invalidations, final long expirations) {
+        this.size = size;
+        this.maxEntries = maxEntries;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.invalidations = invalidations;
+        this.expirations = expirations;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    public long invalidations() {
+        return invalidations;
+    }
+
+    public long expirations() {
+        return expirations;
+    }
+
+    public double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResultCacheStatistics{size=%d/%d, hits=%d, misses=%d, hitRatio=%.3f, evictions=%d, " +
+                        "invalidations=%d, expirations=%d}",
+                size, maxEntries, hits, misses, hitRatio(), evictions, invalidations, expirations);
+    }
+}
@@ -0,0 +1,63 @@
+package pl.edu.agh.iisg.to.connection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import pl.edu.agh.iisg.to.query.BindingPlan;
+
+public final class ConnectionLease implements AutoCloseable {
+
+    private final ConnectionPool pool;
+
+    private final PooledConnection connection;
+
+    private final boolean writer;
+
+    private boolean released = false;
+
+    ConnectionLease(final ConnectionPool pool, final PooledConnection connection, final boolean writer) {
+        this.pool = pool;
+        this.connection = connection;
+        this.writer = writer;
+    }
+
+    public Connection connection() {
+        return connection.connection();
+    }
+
+    /**
+     * Returns a cached statement with cleared parameters. The statement belongs to the connection's
+     * cache and must not be closed by the caller; result sets obtained from it must be.
+     */
+    public PreparedStatement prepare(final String sql) throws SQLException {
+        return connection.statements().prepare(sql, false);
+    }
+
+    public PreparedStatement prepareWithGeneratedKeys(final String sql) throws SQLException {
+        return connection.statements().prepare(sql, true);
+    }
+
+    /**
+     * The parameter types of a statement prepared on this lease, resolved once per cached statement.
+     */
+    public BindingPlan bindingPlan(final String sql, final Object... sample) {
+        return connection.statements().plan(sql, sample);
+    }
+
+    PooledConnection pooled() {
+        return connection;
+    }
+
+    public boolean isWriter() {
+        return writer;
+    }
+
+    @Override
+    public void close() {
+        if (!released) {
+            released = true;
+            pool.release(this);
+        }
+    }
+}
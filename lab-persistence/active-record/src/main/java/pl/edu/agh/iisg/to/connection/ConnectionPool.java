@@ -0,0 +1,320 @@
+package pl.edu.agh.iisg.to.connection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import pl.edu.agh.iisg.to.query.SqlFunctions;
+
+/**
+ * One dedicated writer connection guarded by a reentrant lock plus a fixed set of read-only connections.
+ * A thread that currently holds the writer is handed the writer for reads too, so it sees its own uncommitted work.
+ * <p>
+ * On a shared-cache database (in-memory mode) SQLite locks whole tables and fails with SQLITE_LOCKED instead of
+ * waiting, so the pool does the waiting: reader leases share a read gate that the writer lease holds exclusively.
+ * Readers therefore never overlap a write transaction and only see committed rows; a thread holding a reader lease
+ * cannot acquire the writer.
+ */
+public final class ConnectionPool {
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private final PoolSettings settings;
+
+    private final StatementCache.Counters statementCounters;
+
+    private final PooledConnection writer;
+
+    private final ReentrantLock writerLock = new ReentrantLock(true);
+
+    // only for shared-cache databases, null otherwise
+    private final ReentrantReadWriteLock readGate;
+
+    private final List<PooledConnection> readers = new ArrayList<>();
+
+    private final BlockingQueue<PooledConnection> idleReaders;
+
+    private final AtomicLong readerCheckouts = new AtomicLong();
+
+    private final AtomicLong writerCheckouts = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public ConnectionPool(final String jdbcAddress, final PoolSettings settings) throws SQLException {
+        this(jdbcAddress, settings, null);
+    }
+
+    /**
+     * Opens the pool and, when {@code restoreFrom} exists, first loads that database file into it with the online
+     * backup API. The restore has to happen before the readers connect, so it is only offered at construction.
+     */
+    public ConnectionPool(final String jdbcAddress, final PoolSettings settings, final Path restoreFrom)
+            throws SQLException {
+        this.settings = settings;
+        this.statementCounters = new StatementCache.Counters(settings.statementCacheSize() * (settings.readers() + 1));
+        this.writer = open(jdbcAddress, false);
+        if (restoreFrom != null && Files.exists(restoreFrom)) {
+            restore(restoreFrom);
+        }
+        int readerCount = isPrivateInMemory(jdbcAddress) ? 0 : settings.readers();
+        boolean sharedCache = jdbcAddress.contains("cache=shared");
+        this.readGate = sharedCache && readerCount > 0 ? new ReentrantReadWriteLock(true) : null;
+        this.idleReaders = new ArrayBlockingQueue<>(Math.max(1, readerCount));
+        try {
+            for (int i = 0; i < readerCount; i++) {
+                PooledConnection reader = open(jdbcAddress, true);
+                readers.add(reader);
+                idleReaders.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+        logger.info(String.format("Connection pool opened with 1 writer and %d readers", readerCount));
+    }
+
+    private PooledConnection open(final String jdbcAddress, final boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(jdbcAddress);
+        try (Statement statement = connection.createStatement()) {
+            if (!readOnly && settings.journalMode() != null) {
+                try (ResultSet rs = statement.executeQuery("PRAGMA journal_mode = " + settings.journalMode())) {
+                    if (rs.next()) {
+                        logger.info("Journal mode: " + rs.getString(1));
+                    }
+                }
+            }
+            for (Map.Entry<String, String> pragma : settings.pragmas().entrySet()) {
+                statement.execute("PRAGMA " + pragma.getKey() + " = " + pragma.getValue());
+            }
+            for (Map.Entry<String, String> attachment : settings.attachments().entrySet()) {
+                try (PreparedStatement attach = connection.prepareStatement(
+                        "ATTACH DATABASE ? AS " + attachment.getKey())) {
+                    attach.setString(1, attachment.getValue());
+                    attach.execute();
+                }
+            }
+            if (readOnly) {
+                statement.execute("PRAGMA query_only = 1");
+            }
+            SqlFunctions.register(connection);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return new PooledConnection(connection,
+                new StatementCache(connection, settings.statementCacheSize(), statementCounters));
+    }
+
+    // every connection to a plain ":memory:" address gets its own private database, so readers would see nothing
+    private static boolean isPrivateInMemory(final String jdbcAddress) {
+        return jdbcAddress.contains(":memory:")
+                || (jdbcAddress.contains("mode=memory") && !jdbcAddress.contains("cache=shared"));
+    }
+
+    public ConnectionLease acquireReader() throws SQLException {
+        ensureOpen();
+        if (readers.isEmpty() || writerLock.isHeldByCurrentThread()) {
+            return acquireWriter();
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(settings.checkoutTimeoutMillis());
+        PooledConnection connection = null;
+        boolean gated = false;
+        try {
+            gated = readGate == null
+                    || readGate.readLock().tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (gated) {
+                connection = idleReaders.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a reader connection", e);
+        } finally {
+            if (connection == null && gated && readGate != null) {
+                readGate.readLock().unlock();
+            }
+        }
+        if (connection == null) {
+            timeouts.incrementAndGet();
+            throw new SQLTimeoutException("No reader connection available within "
+                    + settings.checkoutTimeoutMillis() + " ms");
+        }
+        recordWait(start);
+        readerCheckouts.incrementAndGet();
+        return new ConnectionLease(this, connection, false);
+    }
+
+    public ConnectionLease acquireWriter() throws SQLException {
+        ensureOpen();
+        long start = System.nanoTime();
+        boolean locked;
+        try {
+            locked = writerLock.tryLock(settings.checkoutTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the writer connection", e);
+        }
+        if (locked && readGate != null) {
+            locked = lockGate(start);
+        }
+        if (!locked) {
+            timeouts.incrementAndGet();
+            throw new SQLTimeoutException("Writer connection not available within "
+                    + settings.checkoutTimeoutMillis() + " ms");
+        }
+        recordWait(start);
+        writerCheckouts.incrementAndGet();
+        return new ConnectionLease(this, writer, true);
+    }
+
+    // waits for the open reader leases to finish; gives the writer lock back when they do not finish in time
+    private boolean lockGate(final long start) throws SQLException {
+        if (readGate.getReadHoldCount() > 0) {
+            writerLock.unlock();
+            throw new SQLException("Cannot acquire the writer while holding a reader connection");
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(settings.checkoutTimeoutMillis()) - (System.nanoTime() - start);
+        boolean gated = false;
+        try {
+            gated = readGate.writeLock().tryLock(remaining, TimeUnit.NANOSECONDS);
+            return gated;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the writer connection", e);
+        } finally {
+            if (!gated) {
+                writerLock.unlock();
+            }
+        }
+    }
+
+    void release(final ConnectionLease lease) {
+        if (lease.isWriter()) {
+            if (readGate != null) {
+                readGate.writeLock().unlock();
+            }
+            writerLock.unlock();
+            return;
+        }
+        if (readGate != null) {
+            readGate.readLock().unlock();
+        }
+        if (closed) {
+            closeQuietly(lease.pooled());
+        } else {
+            idleReaders.offer(lease.pooled());
+        }
+    }
+
+    private void restore(final Path source) throws SQLException {
+        long started = System.nanoTime();
+        try (Statement statement = writer.connection().createStatement()) {
+            statement.executeUpdate("restore from " + quote(source));
+        } catch (SQLException e) {
+            closeQuietly(writer);
+            throw e;
+        }
+        logger.info(String.format("Restored %s in %d ms", source, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)));
+    }
+
+    /**
+     * Writes a consistent copy of the database to {@code target} with the online backup API. The copy is written
+     * next to the target and moved over it, so a crash never leaves a half-written file behind. Writers are held
+     * off while the copy runs; readers are not.
+     */
+    public void backupTo(final Path target) throws SQLException {
+        Path absolute = target.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".backup");
+        long started = System.nanoTime();
+        try (ConnectionLease lease = acquireWriter(); Statement statement = lease.connection().createStatement()) {
+            statement.executeUpdate("backup to " + quote(temporary));
+        }
+        try {
+            // a journal left behind by a file-mode run belongs to the old content and must not be replayed
+            Files.deleteIfExists(absolute.resolveSibling(absolute.getFileName() + "-wal"));
+            Files.deleteIfExists(absolute.resolveSibling(absolute.getFileName() + "-shm"));
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new SQLException("Cannot replace " + absolute + " with its backup", e);
+        }
+        logger.info(String.format("Backed up to %s in %d ms", absolute, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)));
+    }
+
+    private static String quote(final Path path) throws SQLException {
+        String file = path.toAbsolutePath().toString();
+        if (file.indexOf('"') >= 0) {
+            throw new SQLException("Unsupported database file name: " + file);
+        }
+        return '"' + file + '"';
+    }
+
+    private void recordWait(final long start) {
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+    }
+
+    public Connection writerConnection() {
+        return writer.connection();
+    }
+
+    public PoolSettings settings() {
+        return settings;
+    }
+
+    public PoolStatistics statistics() {
+        return new PoolStatistics(readers.size(), idleReaders.size(), readerCheckouts.get(), writerCheckouts.get(),
+                timeouts.get(), totalWaitNanos.get(), maxWaitNanos.get());
+    }
+
+    public StatementCacheStatistics statementCacheStatistics() {
+        return statementCounters.snapshot();
+    }
+
+    public void close() {
+        closed = true;
+        for (PooledConnection reader : readers) {
+            closeQuietly(reader);
+        }
+        idleReaders.clear();
+        closeQuietly(writer);
+    }
+
+    private static void closeQuietly(final PooledConnection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.info("Error while closing connection: " + e.getMessage());
+        }
+    }
+}
@@ -1,50 +1,324 @@
 package pl.edu.agh.iisg.to.connection;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import pl.edu.agh.iisg.to.cache.IdentityMaps;
+import pl.edu.agh.iisg.to.schema.SchemaManager;
+
 public final class ConnectionProvider {
 
     private static final String JDBC_DRIVER = "org.sqlite.JDBC";
 
     private static final String JDBC_ADDRESS = "jdbc:sqlite:active_record.db";
-    
+
+    public static final String SHARED_SCHEMA = "shared";
+
     private static final Logger logger = Logger.getGlobal();
 
-    private static Optional<Connection> connection = Optional.empty();
+    private static final AtomicInteger IN_MEMORY_DATABASES = new AtomicInteger();
+
+    private static volatile Optional<ConnectionPool> pool = Optional.empty();
+
+    private static volatile Optional<Path> snapshot = Optional.empty();
+
+    private static volatile boolean inMemory = false;
+
+    private static volatile List<ConnectionPool> shards = List.of();
+
+    private static final ThreadLocal<Integer> CURRENT_SHARD = new ThreadLocal<>();
+
+    private static ScheduledExecutorService checkpointer;
 
     static {
         init(JDBC_ADDRESS);
     }
 
+    /**
+     * File mode: every connection works directly on the database at {@code jdbcAddress}.
+     */
     public static void init(final String jdbcAddress) {
+        init(jdbcAddress, PoolSettings.defaults());
+    }
+
+    public static synchronized void init(final String jdbcAddress, final PoolSettings settings) {
+        open(jdbcAddress, settings, null);
+    }
+
+    /**
+     * In-memory mode: the database lives in RAM, shared by the writer and the readers. When {@code snapshotFile}
+     * exists it is loaded at startup; it is written back on {@link #checkpoint()} and on {@link #close()}.
+     * Pass {@code null} for a database that starts empty and is never saved, e.g. in tests.
+     */
+    public static void initInMemory(final String snapshotFile) {
+        initInMemory(snapshotFile, PoolSettings.defaults(), 0);
+    }
+
+    /**
+     * As {@link #initInMemory(String)}, additionally checkpointing to the snapshot file every
+     * {@code checkpointIntervalMillis} (0 disables periodic checkpoints).
+     */
+    public static synchronized void initInMemory(final String snapshotFile, final PoolSettings settings,
+                                                 final long checkpointIntervalMillis) {
+        String jdbcAddress = "jdbc:sqlite:file:active_record_memory_" + IN_MEMORY_DATABASES.incrementAndGet()
+                + "?mode=memory&cache=shared";
+        Path snapshotPath = snapshotFile == null ? null : Paths.get(snapshotFile);
+        open(jdbcAddress, settings, snapshotPath);
+        inMemory = pool.isPresent();
+        snapshot = Optional.ofNullable(snapshotPath).filter(path -> inMemory);
+        if (snapshotPath != null && checkpointIntervalMillis > 0 && pool.isPresent()) {
+            checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "active-record-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkpointer.scheduleWithFixedDelay(ConnectionProvider::checkpointQuietly,
+                    checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void open(final String jdbcAddress, final PoolSettings settings, final Path restoreFrom) {
         try {
             close();
             logger.info("Loading driver");
             Class.forName(JDBC_DRIVER);
-            connection = Optional.of(DriverManager.getConnection(jdbcAddress));
+            pool = Optional.of(new ConnectionPool(jdbcAddress, settings, restoreFrom));
             logger.info("Connection created");
+            // entities cached for the previous database are meaningless in this one
+            IdentityMaps.invalidateAll();
+            SchemaManager.migrate();
         } catch (Exception e) {
             logger.info("Error during initialization: " + e.getMessage());
         }
     }
 
+    /**
+     * Sharded mode: students with their enrolments and grades are spread over {@code shardFiles} by a hash of the
+     * index number, while courses live in {@code sharedFile}, which every shard connection attaches as
+     * {@value #SHARED_SCHEMA}. Outside {@link #onShard(int, ShardWork)} connections go to the shared file. Each
+     * shard hands out ids from its own range, so ids stay unique; the shard files must therefore always be given in
+     * the same order and their number must not change once data was written.
+     */
+    public static synchronized void initSharded(final String sharedFile, final List<String> shardFiles,
+                                                final PoolSettings settings) {
+        if (shardFiles.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard file is needed");
+        }
+        open("jdbc:sqlite:" + sharedFile, settings, null);
+        if (pool.isEmpty()) {
+            return;
+        }
+        PoolSettings shardSettings = settings.withAttachedDatabase(SHARED_SCHEMA, sharedFile);
+        List<ConnectionPool> opened = new ArrayList<>();
+        try {
+            // migrated without readers: a reader that loaded the schema before the shard had its tables would keep
+            // binding their unqualified names to the tables of the same name in the attached shared database
+            opened.addAll(openShards(shardFiles, shardSettings.withReaders(0)));
+            shards = List.copyOf(opened);
+            int idRange = Integer.MAX_VALUE / opened.size();
+            for (int shard = 0; shard < opened.size(); shard++) {
+                int idBase = shard * idRange;
+                onShard(shard, () -> {
+                    SchemaManager.migrate();
+                    SchemaManager.prepareShard(idBase);
+                    return null;
+                });
+            }
+            shards = List.of();
+            closeAll(opened);
+            opened.addAll(openShards(shardFiles, shardSettings));
+            shards = List.copyOf(opened);
+            logger.info(String.format("Sharded over %d files", opened.size()));
+        } catch (Exception e) {
+            logger.info("Error during shard initialization: " + e.getMessage());
+            shards = List.of();
+            closeAll(opened);
+        }
+    }
+
+    private static List<ConnectionPool> openShards(final List<String> shardFiles, final PoolSettings settings)
+            throws SQLException {
+        List<ConnectionPool> opened = new ArrayList<>();
+        try {
+            for (String shardFile : shardFiles) {
+                opened.add(new ConnectionPool("jdbc:sqlite:" + shardFile, settings));
+            }
+        } catch (SQLException e) {
+            closeAll(opened);
+            throw e;
+        }
+        return opened;
+    }
+
+    private static void closeAll(final List<ConnectionPool> pools) {
+        for (ConnectionPool pool : pools) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    public static boolean isSharded() {
+        return !shards.isEmpty();
+    }
+
+    /**
+     * Number of shards; a database that is not sharded counts as a single shard.
+     */
+    public static int shardCount() {
+        return Math.max(1, shards.size());
+    }
+
+    public static int shardOfIndexNumber(final int indexNumber) {
+        int count = shards.size();
+        if (count < 2) {
+            return 0;
+        }
+        // spread runs of consecutive index numbers, which usually belong to one faculty, over all shards
+        int hash = indexNumber * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), count);
+    }
+
+    /**
+     * The shard that generated the id of a student, enrolment or grade.
+     */
+    public static int shardOfId(final int id) {
+        int count = shards.size();
+        if (count < 2) {
+            return 0;
+        }
+        return Math.min(count - 1, Math.max(0, id) / (Integer.MAX_VALUE / count));
+    }
+
+    /**
+     * Runs the work with the connections acquired by the current thread routed to the given shard and returns its
+     * result; the previous routing is restored afterwards. Without sharding, shard 0 is the database itself.
+     */
+    public static <T, E extends Exception> T onShard(final int shard, final ShardWork<T, E> work) throws E {
+        if (shard < 0 || shard >= shardCount()) {
+            throw new IllegalArgumentException("No shard " + shard + " among " + shardCount());
+        }
+        Integer previous = CURRENT_SHARD.get();
+        if (isSharded()) {
+            CURRENT_SHARD.set(shard);
+        }
+        try {
+            return work.run();
+        } finally {
+            restoreShard(previous);
+        }
+    }
+
+    /**
+     * The shard the current thread is routed to, or -1 for the shared (or only) database.
+     */
+    public static int currentShard() {
+        Integer shard = CURRENT_SHARD.get();
+        return shard == null ? -1 : shard;
+    }
+
+    private static void restoreShard(final Integer shard) {
+        if (shard == null) {
+            CURRENT_SHARD.remove();
+        } else {
+            CURRENT_SHARD.set(shard);
+        }
+    }
+
+    public static boolean isInMemory() {
+        return inMemory;
+    }
+
+    /**
+     * Saves the in-memory database to its snapshot file.
+     */
+    public static void checkpoint() throws SQLException {
+        Path target = snapshot.orElseThrow(() -> new IllegalStateException("No snapshot file to checkpoint to"));
+        pool().backupTo(target);
+    }
+
+    private static void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            logger.info("Error during checkpoint: " + e.getMessage());
+        }
+    }
+
     private ConnectionProvider() {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Raw writer connection, not guarded by the pool. Prefer {@link #reader()} and {@link #writer()}.
+     */
     public static Connection getConnection() {
-        return connection.orElseThrow(() -> new RuntimeException("Connection is not valid."));
+        return pool().writerConnection();
     }
 
-    public static void close() throws SQLException {
-        if (connection.isPresent()) {
-            logger.info("Closing connection");
-            connection.get().close();
-            connection = Optional.empty();
+    public static ConnectionLease reader() throws SQLException {
+        return pool().acquireReader();
+    }
+
+    public static ConnectionLease writer() throws SQLException {
+        return pool().acquireWriter();
+    }
+
+    public static PoolStatistics statistics() {
+        return pool().statistics();
+    }
+
+    public static PoolSettings settings() {
+        return pool().settings();
+    }
+
+    public static StatementCacheStatistics statementCacheStatistics() {
+        return pool().statementCacheStatistics();
+    }
+
+    private static ConnectionPool pool() {
+        Integer shard = CURRENT_SHARD.get();
+        if (shard != null) {
+            List<ConnectionPool> current = shards;
+            if (shard < current.size()) {
+                return current.get(shard);
+            }
+        }
+        return pool.orElseThrow(() -> new RuntimeException("Connection is not valid."));
+    }
+
+    /**
+     * Closes the pool and the shards; in in-memory mode with a snapshot file the database is checkpointed first.
+     */
+    public static synchronized void close() throws SQLException {
+        if (checkpointer != null) {
+            checkpointer.shutdownNow();
+            checkpointer = null;
+        }
+        List<ConnectionPool> closing = new ArrayList<>(shards);
+        shards = List.of();
+        closeAll(closing);
+        if (pool.isPresent()) {
+            try {
+                if (snapshot.isPresent()) {
+                    checkpoint();
+                }
+            } finally {
+                logger.info("Closing connection");
+                pool.get().close();
+                pool = Optional.empty();
+                snapshot = Optional.empty();
+                inMemory = false;
+            }
         }
     }
 
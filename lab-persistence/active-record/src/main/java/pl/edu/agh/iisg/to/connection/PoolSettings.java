@@ -0,0 +1,114 @@
+package pl.edu.agh.iisg.to.connection;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public final class PoolSettings {
+
+    private static final int DEFAULT_READERS = 4;
+
+    private static final long DEFAULT_CHECKOUT_TIMEOUT_MILLIS = 5_000;
+
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    private final int readers;
+
+    private final long checkoutTimeoutMillis;
+
+    private final int statementCacheSize;
+
+    private final String journalMode;
+
+    private final Map<String, String> pragmas;
+
+    private final Map<String, String> attachments;
+
+    private PoolSettings(final int readers, final long checkoutTimeoutMillis, final int statementCacheSize,
+                         final String journalMode, final Map<String, String> pragmas,
+                         final Map<String, String> attachments) {
+        this.readers = readers;
+        this.checkoutTimeoutMillis = checkoutTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.journalMode = journalMode;
+        this.pragmas = Collections.unmodifiableMap(pragmas);
+        this.attachments = Collections.unmodifiableMap(attachments);
+    }
+
+    public static PoolSettings defaults() {
+        Map<String, String> pragmas = new LinkedHashMap<>();
+        pragmas.put("synchronous", "NORMAL");
+        pragmas.put("busy_timeout", "5000");
+        pragmas.put("temp_store", "MEMORY");
+        pragmas.put("cache_size", "-8000");
+        return new PoolSettings(DEFAULT_READERS, DEFAULT_CHECKOUT_TIMEOUT_MILLIS, DEFAULT_STATEMENT_CACHE_SIZE,
+                "WAL", pragmas, new LinkedHashMap<>());
+    }
+
+    public PoolSettings withReaders(final int readers) {
+        if (readers < 0) {
+            throw new IllegalArgumentException("Reader count cannot be negative: " + readers);
+        }
+        return new PoolSettings(readers, checkoutTimeoutMillis, statementCacheSize, journalMode, pragmas, attachments);
+    }
+
+    public PoolSettings withCheckoutTimeoutMillis(final long checkoutTimeoutMillis) {
+        if (checkoutTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Checkout timeout must be positive: " + checkoutTimeoutMillis);
+        }
+        return new PoolSettings(readers, checkoutTimeoutMillis, statementCacheSize, journalMode, pragmas, attachments);
+    }
+
+    public PoolSettings withStatementCacheSize(final int statementCacheSize) {
+        if (statementCacheSize < 1) {
+            throw new IllegalArgumentException("Statement cache size must be positive: " + statementCacheSize);
+        }
+        return new PoolSettings(readers, checkoutTimeoutMillis, statementCacheSize, journalMode, pragmas, attachments);
+    }
+
+    public PoolSettings withJournalMode(final String journalMode) {
+        return new PoolSettings(readers, checkoutTimeoutMillis, statementCacheSize, journalMode, pragmas, attachments);
+    }
+
+    public PoolSettings withPragma(final String name, final String value) {
+        Map<String, String> copy = new LinkedHashMap<>(pragmas);
+        copy.put(name, value);
+        return new PoolSettings(readers, checkoutTimeoutMillis, statementCacheSize, journalMode, copy, attachments);
+    }
+
+    /**
+     * Every connection of the pool attaches the database file under the given schema name.
+     */
+    public PoolSettings withAttachedDatabase(final String schema, final String file) {
+        if (!schema.matches("\\w+")) {
+            throw new IllegalArgumentException("Invalid schema name: " + schema);
+        }
+        Map<String, String> copy = new LinkedHashMap<>(attachments);
+        copy.put(schema, file);
+        return new PoolSettings(readers, checkoutTimeoutMillis, statementCacheSize, journalMode, pragmas, copy);
+    }
+
+    public int readers() {
+        return readers;
+    }
+
+    public long checkoutTimeoutMillis() {
+        return checkoutTimeoutMillis;
+    }
+
+    public int statementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public String journalMode() {
+        return journalMode;
+    }
+
+    public Map<String, String> pragmas() {
+        return pragmas;
+    }
+
+    public Map<String, String> attachments() {
+        return attachments;
+    }
+}
@@ -0,0 +1,74 @@
+package pl.edu.agh.iisg.to.connection;
+
+public final class PoolStatistics {
+
+    private final int readers;
+
+    private final int idleReaders;
+
+    private final long readerCheckouts;
+
+    private final long writerCheckouts;
+
+    private final long timeouts;
+
+    private final long totalWaitNanos;
+
+    private final long maxWaitNanos;
+
+    PoolStatistics(final int readers, final int idleReaders, final long readerCheckouts, final long writerCheckouts,
+                   final long timeouts, final long totalWaitNanos, final long maxWaitNanos) {
+        this.readers = readers;
+        this.idleReaders = idleReaders;
+        this.readerCheckouts = readerCheckouts;
+        this.writerCheckouts = writerCheckouts;
+        this.timeouts = timeouts;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    public int readers() {
+        return readers;
+    }
+
+    public int idleReaders() {
+        return idleReaders;
+    }
+
+    public int busyReaders() {
+        return readers - idleReaders;
+    }
+
+    public long readerCheckouts() {
+        return readerCheckouts;
+    }
+
+    public long writerCheckouts() {
+        return writerCheckouts;
+    }
+
+    public long timeouts() {
+        return timeouts;
+    }
+
+    public long totalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    public long maxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    public double averageWaitNanos() {
+        long checkouts = readerCheckouts + writerCheckouts;
+        return checkouts == 0 ? 0.0 : (double) totalWaitNanos / checkouts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PoolStatistics{readers=%d, idleReaders=%d, readerCheckouts=%d, writerCheckouts=%d, " +
+                        "timeouts=%d, avgWaitMicros=%.1f, maxWaitMicros=%.1f}",
+                readers, idleReaders, readerCheckouts, writerCheckouts, timeouts,
+                averageWaitNanos() / 1_000.0, maxWaitNanos / 1_000.0);
+    }
+}
@@ -0,0 +1,29 @@
+package pl.edu.agh.iisg.to.connection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+final class PooledConnection {
+
+    private final Connection connection;
+
+    private final StatementCache statements;
+
+    PooledConnection(final Connection connection, final StatementCache statements) {
+        this.connection = connection;
+        this.statements = statements;
+    }
+
+    Connection connection() {
+        return connection;
+    }
+
+    StatementCache statements() {
+        return statements;
+    }
+
+    void close() throws SQLException {
+        statements.close();
+        connection.close();
+    }
+}
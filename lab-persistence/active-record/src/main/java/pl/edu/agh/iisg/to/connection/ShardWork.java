@@ -0,0 +1,10 @@
+package pl.edu.agh.iisg.to.connection;
+
+/**
+ * Work run against one shard by {@link ConnectionProvider#onShard(int, ShardWork)}.
+ */
+@FunctionalInterface
+public interface ShardWork<T, E extends Exception> {
+
+    T run() throws E;
+}
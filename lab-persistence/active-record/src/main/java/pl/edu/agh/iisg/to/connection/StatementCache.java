@@ -0,0 +1,169 @@
+package pl.edu.agh.iisg.to.connection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import pl.edu.agh.iisg.to.query.BindingPlan;
+
+/**
+ * LRU cache of prepared statements owned by a single connection. Not thread safe on its own - it is only
+ * touched by the thread that currently holds the connection lease.
+ */
+public final class StatementCache {
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private final Connection connection;
+
+    private final Counters counters;
+
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    StatementCache(final Connection connection, final int capacity, final Counters counters) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Statement cache capacity must be positive: " + capacity);
+        }
+        this.connection = connection;
+        this.counters = counters;
+        this.statements = new LinkedHashMap<>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedStatement> eldest) {
+                if (size() > capacity) {
+                    counters.evictions.incrementAndGet();
+                    closeQuietly(eldest.getValue().statement);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public PreparedStatement prepare(final String sql, final boolean returnGeneratedKeys) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && (cached.returnsGeneratedKeys || !returnGeneratedKeys) && reusable(cached.statement)) {
+            counters.hits.incrementAndGet();
+            return cached.statement;
+        }
+        if (cached != null) {
+            statements.remove(sql);
+            closeQuietly(cached.statement);
+        }
+        counters.misses.incrementAndGet();
+        counters.prepared(sql);
+        PreparedStatement statement = returnGeneratedKeys
+                ? connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                : connection.prepareStatement(sql);
+        statements.put(sql, new CachedStatement(statement, returnGeneratedKeys));
+        return statement;
+    }
+
+    /**
+     * The binding plan of a statement returned by {@link #prepare}, resolved from {@code sample} on the first call
+     * and kept until the statement leaves the cache.
+     */
+    public BindingPlan plan(final String sql, final Object... sample) {
+        CachedStatement cached = statements.get(sql);
+        if (cached == null) {
+            return BindingPlan.of(sample);
+        }
+        if (cached.plan == null) {
+            cached.plan = BindingPlan.of(sample);
+        }
+        return cached.plan;
+    }
+
+    // the driver finalizes a statement whose execution failed (e.g. on a constraint violation)
+    // and still reports it as open, so clearing the parameters doubles as a liveness check
+    private static boolean reusable(final PreparedStatement statement) {
+        try {
+            statement.clearParameters();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes and forgets every cached statement; the connection itself stays open.
+     */
+    public void reset() {
+        List<CachedStatement> toClose = new ArrayList<>(statements.values());
+        statements.clear();
+        for (CachedStatement cached : toClose) {
+            closeQuietly(cached.statement);
+        }
+    }
+
+    public void close() {
+        reset();
+    }
+
+    private static void closeQuietly(final PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.info("Error while closing statement: " + e.getMessage());
+        }
+    }
+
+    private static final class CachedStatement {
+
+        private final PreparedStatement statement;
+
+        private final boolean returnsGeneratedKeys;
+
+        private BindingPlan plan;
+
+        private CachedStatement(final PreparedStatement statement, final boolean returnsGeneratedKeys) {
+            this.statement = statement;
+            this.returnsGeneratedKeys = returnsGeneratedKeys;
+        }
+    }
+
+    static final class Counters {
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        private final AtomicLong evictions = new AtomicLong();
+
+        // per-SQL counts, bounded like the caches: the least recently prepared SQL is forgotten first
+        private final LinkedHashMap<String, Long> preparations;
+
+        Counters(final int trackedStatements) {
+            this.preparations = new LinkedHashMap<>(trackedStatements * 4 / 3 + 1, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+                    return size() > trackedStatements;
+                }
+            };
+        }
+
+        private void prepared(final String sql) {
+            synchronized (preparations) {
+                preparations.merge(sql, 1L, Long::sum);
+            }
+        }
+
+        StatementCacheStatistics snapshot() {
+            Map<String, Long> prepared;
+            synchronized (preparations) {
+                prepared = new LinkedHashMap<>(preparations);
+            }
+            return new StatementCacheStatistics(hits.get(), misses.get(), evictions.get(), prepared);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package pl.edu.agh.iisg.to.connection;
+
+import java.util.Collections;
+import java.util.Map;
+
+public final class StatementCacheStatistics {
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final Map<String, Long> preparations;
+
+    StatementCacheStatistics(final long hits, final long misses, final long evictions,
+                             final Map<String, Long> preparations) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.preparations = Collections.unmodifiableMap(preparations);
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long evictions() {
+        return evictions;
+    }
+
+    public double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    /**
+     * How many times the given SQL was parsed, summed over all pooled connections. Only as many distinct statements
+     * as all the connections' caches hold together are tracked; the least recently prepared ones are dropped.
+     */
+    public long preparations(final String sql) {
+        return preparations.getOrDefault(sql, 0L);
+    }
+
+    public Map<String, Long> preparations() {
+        return preparations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StatementCacheStatistics{hits=%d, misses=%d, evictions=%d, hitRatio=%.3f}",
+                hits, misses, evictions, hitRatio());
+    }
+}
@@ -0,0 +1,164 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+import pl.edu.agh.iisg.to.connection.PoolSettings;
+
+/**
+ * Runs blocking database work on a fixed pool of worker threads and hands back {@link CompletableFuture}s, so that
+ * independent lookups can be fanned out. By default there is one worker per pooled connection (the readers plus the
+ * writer); more would only queue on the pool. Submissions beyond {@code maxInFlight} never block the caller: their
+ * futures fail at once with {@link RejectedExecutionException}.
+ * <p>
+ * Work runs on the worker threads, so a SESSION identity map opened by the caller is not visible to it. Tasks must not
+ * block on other async results, as that can starve the fixed pool.
+ */
+public final class AsyncQueryExecutor {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    private static ExecutorService executor;
+
+    private static volatile InFlight inFlight;
+
+    private AsyncQueryExecutor() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static synchronized void configure(final int threads, final int maxInFlight) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        }
+        if (maxInFlight < threads) {
+            throw new IllegalArgumentException("Max in-flight must be at least the thread count: " + maxInFlight);
+        }
+        shutdown();
+        executor = Executors.newFixedThreadPool(threads, workerFactory());
+        inFlight = new InFlight(maxInFlight);
+        LOGGER.info(String.format("Async executor started with %d threads, %d in flight", threads, maxInFlight));
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs the given database work asynchronously; an {@link java.sql.SQLException} completes the future exceptionally,
+     * as does a submission over the in-flight limit.
+     */
+    public static <T> CompletableFuture<T> supply(final SqlCallable<T> work) {
+        ExecutorService workers;
+        InFlight limit;
+        synchronized (AsyncQueryExecutor.class) {
+            if (executor == null) {
+                PoolSettings settings = ConnectionProvider.settings();
+                configure(settings.readers() + 1, Math.max(DEFAULT_MAX_IN_FLIGHT, settings.readers() + 1));
+            }
+            workers = executor;
+            limit = inFlight;
+        }
+        Semaphore permits = limit.permits;
+        if (!permits.tryAcquire()) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    "More than " + limit.max + " queries in flight"));
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            workers.execute(() -> {
+                T result;
+                try {
+                    result = work.call();
+                } catch (Throwable e) {
+                    permits.release();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                // free the slot before dependent stages run, they may well submit the next query
+                permits.release();
+                future.complete(result);
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Runs a model call (which handles its own {@link java.sql.SQLException}s) asynchronously.
+     */
+    public static <T> CompletableFuture<T> submit(final Supplier<T> work) {
+        return supply(work::get);
+    }
+
+    public static <T> CompletableFuture<List<T>> query(final String sql, final RowMapper<T> mapper, Object... args) {
+        return supply(() -> QueryExecutor.query(sql, mapper, args));
+    }
+
+    public static <T> CompletableFuture<Optional<T>> queryForObject(final String sql, final RowMapper<T> mapper,
+                                                                    Object... args) {
+        return supply(() -> QueryExecutor.queryForObject(sql, mapper, args));
+    }
+
+    public static CompletableFuture<Integer> createAndObtainId(final String insertSql, Object... args) {
+        return supply(() -> QueryExecutor.createAndObtainId(insertSql, args));
+    }
+
+    public static CompletableFuture<int[]> executeBatch(final String insertSql, final List<Object[]> rows) {
+        return supply(() -> QueryExecutor.executeBatch(insertSql, rows));
+    }
+
+    public static int inFlight() {
+        InFlight limit = inFlight;
+        return limit == null ? 0 : limit.max - limit.permits.availablePermits();
+    }
+
+    static boolean isWorkerThread() {
+        return Thread.currentThread() instanceof Worker;
+    }
+
+    private static ThreadFactory workerFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Worker(runnable, "active-record-async-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // the permits and the limit they were created with, swapped together on reconfiguration
+    private static final class InFlight {
+
+        private final Semaphore permits;
+
+        private final int max;
+
+        private InFlight(final int max) {
+            this.permits = new Semaphore(max);
+            this.max = max;
+        }
+    }
+
+    private static final class Worker extends Thread {
+
+        private Worker(final Runnable runnable, final String name) {
+            super(runnable, name);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package pl.edu.agh.iisg.to.executor;
+
+/**
+ * Outcome of {@link QueryExecutor#executeBatchForResult(String, java.util.List, int)}: the generated id and the
+ * update count of every row, in row order.
+ */
+public final class BatchResult {
+
+    private final int[] ids;
+
+    private final int[] updateCounts;
+
+    BatchResult(final int[] ids, final int[] updateCounts) {
+        this.ids = ids;
+        this.updateCounts = updateCounts;
+    }
+
+    /**
+     * Generated ids, -1 where they could not be derived, see {@link QueryExecutor#executeBatch(String, java.util.List, int)}.
+     */
+    public int[] ids() {
+        return ids;
+    }
+
+    /**
+     * Rows changed by each row's statement, e.g. 0 for a row skipped by OR IGNORE.
+     */
+    public int[] updateCounts() {
+        return updateCounts;
+    }
+
+    /**
+     * Rows actually written, summed over the batch.
+     */
+    public int changedRows() {
+        int changed = 0;
+        for (int count : updateCounts) {
+            changed += Math.max(0, count);
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,64 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One committed write. Inserts carry the generated id (when the write path obtained it) and the inserted values by
+ * column; updates and deletes only say which table changed.
+ */
+public final class ChangeEvent {
+
+    private final String table;
+
+    private final TableChangeListener.Operation operation;
+
+    private final int id;
+
+    private final Map<String, Object> values;
+
+    ChangeEvent(final String table, final TableChangeListener.Operation operation, final int id,
+                final Map<String, Object> values) {
+        this.table = table;
+        this.operation = operation;
+        this.id = id;
+        this.values = values;
+    }
+
+    static ChangeEvent of(final WrittenTable written, final int id, final Object[] args) {
+        String[] columns = written.columns();
+        if (args == null || columns.length != args.length) {
+            return new ChangeEvent(written.table(), written.operation(), id, Collections.emptyMap());
+        }
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < columns.length; i++) {
+            values.put(columns[i], args[i]);
+        }
+        return new ChangeEvent(written.table(), written.operation(), id, Collections.unmodifiableMap(values));
+    }
+
+    public String table() {
+        return table;
+    }
+
+    public TableChangeListener.Operation operation() {
+        return operation;
+    }
+
+    /**
+     * The id of the inserted row, or -1 when it is not known.
+     */
+    public int id() {
+        return id;
+    }
+
+    public Map<String, Object> values() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" + operation + " " + table + (id >= 0 ? " #" + id : "") + " " + values + "}";
+    }
+}
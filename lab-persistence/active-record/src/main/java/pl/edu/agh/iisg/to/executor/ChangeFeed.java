@@ -0,0 +1,65 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * In-process feed of committed writes made through {@link QueryExecutor}. Listeners get one call per transaction
+ * (a statement outside {@link QueryExecutor#inTransaction(SqlCallable)} is its own transaction, a batch insert one
+ * per committed chunk), on the committing thread right after the commit. Changes undone by a rollback are never
+ * published. With no listener subscribed no events are built at all.
+ */
+public final class ChangeFeed {
+
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    private static final List<ChangeListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static volatile boolean active = false;
+
+    private ChangeFeed() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Subscribes the listener until the returned subscription is closed.
+     */
+    public static synchronized Subscription subscribe(final ChangeListener listener) {
+        LISTENERS.add(listener);
+        active = true;
+        return () -> unsubscribe(listener);
+    }
+
+    private static synchronized void unsubscribe(final ChangeListener listener) {
+        LISTENERS.remove(listener);
+        active = !LISTENERS.isEmpty();
+    }
+
+    static boolean isActive() {
+        return active;
+    }
+
+    static void publish(final List<ChangeEvent> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<ChangeEvent> published = List.copyOf(changes);
+        for (ChangeListener listener : LISTENERS) {
+            try {
+                listener.committed(published);
+            } catch (RuntimeException e) {
+                // the data is committed already, a failing listener must not turn that into an error
+                LOGGER.info("Change listener failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Subscription extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+}
@@ -0,0 +1,13 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.util.List;
+
+@FunctionalInterface
+public interface ChangeListener {
+
+    /**
+     * Called after commit with the changes of one transaction, in the order they were made.
+     */
+    void committed(List<ChangeEvent> changes);
+
+}
@@ -1,70 +1,95 @@
 package pl.edu.agh.iisg.to.executor;
 
+import pl.edu.agh.iisg.to.cache.IdentityMaps;
+import pl.edu.agh.iisg.to.cache.ResultCache;
+import pl.edu.agh.iisg.to.cache.ResultCacheStatistics;
+import pl.edu.agh.iisg.to.connection.ConnectionLease;
 import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+import pl.edu.agh.iisg.to.query.BindingPlan;
 import pl.edu.agh.iisg.to.query.QueryHelper;
+import pl.edu.agh.iisg.to.query.StatementBinder;
 
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Savepoint;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public final class QueryExecutor {
 
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+
+    public static final int DEFAULT_FETCH_SIZE = 256;
+
     private static final Logger LOGGER = Logger.getGlobal();
 
+    private static final RowSetFactory ROW_SET_FACTORY;
+
+    private static final List<TableChangeListener> TABLE_CHANGE_LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static final ThreadLocal<Transaction> TRANSACTION = new ThreadLocal<>();
+
+    private static volatile ResultCache resultCache;
+
+    private static TableChangeListener resultCacheInvalidator;
+
+    private static volatile SingleWriter singleWriter;
+
+    private static final int SQLITE_BUSY = 5;
+
+    private static final int SQLITE_LOCKED = 6;
+
+    private static final int BUSY_MAX_ATTEMPTS = 5;
+
+    private static final long BUSY_INITIAL_BACKOFF_MILLIS = 10;
+
     private QueryExecutor() {
         throw new UnsupportedOperationException();
     }
 
     static {
         try {
-            LOGGER.info("Creating table Student");
-            create("CREATE TABLE IF NOT EXISTS student (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                    "first_name VARCHAR(50) NOT NULL, " +
-                    "last_name VARCHAR(50) NOT NULL, " +
-                    "index_number int NOT NULL, " +
-                    "UNIQUE (index_number) " +
-                    ");");
-            LOGGER.info("Creating table Course");
-            create("CREATE TABLE IF NOT EXISTS course (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                    "name VARCHAR(50) NOT NULL, " +
-                    "UNIQUE (name) " +
-                    ");");
-            LOGGER.info("Creating table Student_Course");
-            create("CREATE TABLE IF NOT EXISTS student_course (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                    "student_id INT NOT NULL, " +
-                    "course_id INT NOT NULL, " +
-                    "FOREIGN KEY(student_id) references student (id), " +
-                    "FOREIGN KEY(course_id) references course (id), " +
-                    "UNIQUE (student_id, course_id)" +
-                    ");");
-            LOGGER.info("Creating table Grade");
-            create("CREATE TABLE IF NOT EXISTS grade (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                    "grade REAL NOT NULL, " +
-                    "student_id INT NOT NULL, " +
-                    "course_id INT NOT NULL, " +
-                    "FOREIGN KEY(student_id) references student (id), " +
-                    "FOREIGN KEY(course_id) references course (id) " +
-                    ");");
-
+            ROW_SET_FACTORY = RowSetProvider.newFactory();
         } catch (SQLException e) {
-            LOGGER.info("Error during create tables: " + e.getMessage());
-            throw new RuntimeException("Cannot create tables");
+            throw new ExceptionInInitializerError(e);
         }
     }
 
     public static int createAndObtainId(final String insertSql, Object... args) throws SQLException {
-        PreparedStatement statement = ConnectionProvider.getConnection().prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS);
-        QueryHelper.mapParams(statement, args);
-        statement.execute();
-        try (final ResultSet resultSet = statement.getGeneratedKeys()) {
-            return readIdFromResultSet(resultSet);
+        SingleWriter writer = handOff();
+        if (writer != null) {
+            return writer.execute(() -> createAndObtainId(insertSql, args));
+        }
+        long started = QueryMetrics.start();
+        try (ConnectionLease lease = ConnectionProvider.writer()) {
+            long acquired = QueryMetrics.now(started);
+            PreparedStatement statement = lease.prepareWithGeneratedKeys(insertSql);
+            QueryHelper.mapParams(lease, insertSql, statement, args);
+            statement.execute();
+            try (final ResultSet resultSet = statement.getGeneratedKeys()) {
+                int id = readIdFromResultSet(resultSet);
+                QueryMetrics.record(insertSql, started, acquired, 1);
+                recordChange(insertSql, id, args);
+                notifyTableChanged(insertSql);
+                return id;
+            }
+        } catch (SQLException e) {
+            QueryMetrics.recordError(insertSql, started);
+            throw e;
         }
     }
 
@@ -72,35 +97,650 @@ public final class QueryExecutor {
         return resultSet.next() ? resultSet.getInt(1) : -1;
     }
 
+    public static int[] executeBatch(final String insertSql, final List<Object[]> rows) throws SQLException {
+        return executeBatch(insertSql, rows, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Inserts the rows through JDBC batching, committing once per chunk, and returns the generated ids in row order.
+     * The ids are derived from the last inserted rowid: the writer is held for the whole chunk and our tables use
+     * AUTOINCREMENT, so when every row inserted exactly one row the rowids of one chunk are consecutive. Statements
+     * with a conflict clause (OR IGNORE, OR REPLACE) and chunks where a row did not insert exactly one row get -1
+     * for every id and publish a single change without ids instead of one per row. Chunks committed before a
+     * failure stay committed. Inside {@link #inTransaction(SqlCallable)} the whole batch runs in a savepoint instead,
+     * so a failure leaves none of its rows in the enclosing transaction.
+     */
+    public static int[] executeBatch(final String insertSql, final List<Object[]> rows, final int chunkSize)
+            throws SQLException {
+        return executeBatchForResult(insertSql, rows, chunkSize).ids();
+    }
+
+    /**
+     * As {@link #executeBatch(String, List, int)}, also returning the update count of every row, which tells the rows
+     * skipped by a conflict clause apart from the written ones.
+     */
+    public static BatchResult executeBatchForResult(final String insertSql, final List<Object[]> rows,
+                                                    final int chunkSize) throws SQLException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        SingleWriter writer = handOff();
+        if (writer != null) {
+            return writer.execute(() -> executeBatchForResult(insertSql, rows, chunkSize));
+        }
+        if (isInTransaction()) {
+            return inTransaction(() -> insertBatch(insertSql, rows, chunkSize));
+        }
+        return insertBatch(insertSql, rows, chunkSize);
+    }
+
+    private static BatchResult insertBatch(final String insertSql, final List<Object[]> rows, final int chunkSize)
+            throws SQLException {
+        int[] ids = new int[rows.size()];
+        int[] rowCounts = new int[rows.size()];
+        long started = QueryMetrics.start();
+        try (ConnectionLease lease = ConnectionProvider.writer()) {
+            long acquired = QueryMetrics.now(started);
+            Connection connection = lease.connection();
+            boolean ownTransaction = connection.getAutoCommit();
+            PreparedStatement ps = lease.prepare(insertSql);
+            BindingPlan plan = rows.isEmpty() ? null : lease.bindingPlan(insertSql, rows.get(0));
+            boolean derivesIds = !WrittenTable.of(insertSql).hasConflictClause();
+            try {
+                connection.setAutoCommit(false);
+                for (int from = 0; from < rows.size(); from += chunkSize) {
+                    int to = Math.min(rows.size(), from + chunkSize);
+                    for (int i = from; i < to; i++) {
+                        plan.bind(ps, rows.get(i));
+                        ps.addBatch();
+                    }
+                    int[] updateCounts = ps.executeBatch();
+                    System.arraycopy(updateCounts, 0, rowCounts, from, updateCounts.length);
+                    boolean consecutive = derivesIds && insertedOneRowEach(updateCounts);
+                    int lastId = consecutive ? lastInsertId(lease) : -1;
+                    if (ownTransaction) {
+                        connection.commit();
+                    }
+                    for (int i = from; i < to; i++) {
+                        ids[i] = consecutive ? lastId - (to - 1 - i) : -1;
+                    }
+                    if (consecutive) {
+                        recordChanges(insertSql, rows, ids, from, to);
+                    } else {
+                        recordChange(insertSql, -1, null);
+                    }
+                    notifyTableChanged(insertSql);
+                }
+            } catch (SQLException e) {
+                try {
+                    ps.clearBatch();
+                } catch (SQLException clearFailure) {
+                    e.addSuppressed(clearFailure);
+                }
+                if (ownTransaction) {
+                    connection.rollback();
+                }
+                throw e;
+            } finally {
+                connection.setAutoCommit(ownTransaction);
+            }
+            QueryMetrics.record(insertSql, started, acquired, rows.size());
+        } catch (SQLException e) {
+            QueryMetrics.recordError(insertSql, started);
+            throw e;
+        }
+        return new BatchResult(ids, rowCounts);
+    }
+
+    private static boolean insertedOneRowEach(final int[] updateCounts) {
+        for (int count : updateCounts) {
+            if (count != 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int lastInsertId(final ConnectionLease lease) throws SQLException {
+        try (ResultSet resultSet = lease.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            return readIdFromResultSet(resultSet);
+        }
+    }
+
     public static void create(final String insertSql, Object... args) throws SQLException {
-        PreparedStatement ps = ConnectionProvider.getConnection().prepareStatement(insertSql);
-        QueryHelper.mapParams(ps, args);
-        ps.execute();
+        SingleWriter writer = handOff();
+        if (writer != null) {
+            writer.execute(() -> {
+                create(insertSql, args);
+                return null;
+            });
+            return;
+        }
+        long started = QueryMetrics.start();
+        try (ConnectionLease lease = ConnectionProvider.writer()) {
+            long acquired = QueryMetrics.now(started);
+            PreparedStatement ps = lease.prepare(insertSql);
+            QueryHelper.mapParams(lease, insertSql, ps, args);
+            ps.execute();
+            QueryMetrics.record(insertSql, started, acquired, Math.max(0, ps.getUpdateCount()));
+        } catch (SQLException e) {
+            QueryMetrics.recordError(insertSql, started);
+            throw e;
+        }
+        recordChange(insertSql, -1, args);
+        notifyTableChanged(insertSql);
     }
 
+    /**
+     * Runs the query on a reader connection and returns a detached copy of the rows, so the connection
+     * goes back to the pool before the caller starts iterating.
+     */
     public static ResultSet read(final String sql, Object... args) throws SQLException {
-        PreparedStatement ps = ConnectionProvider.getConnection().prepareStatement(sql);
-        QueryHelper.mapParams(ps, args);
-        final ResultSet resultSet = ps.executeQuery();
-        LOGGER.info(String.format("Query: %s executed.", sql));
-        return resultSet;
+        ResultCache cache = resultCache;
+        // inside a transaction the reads see uncommitted writes, which must not reach other threads
+        ResultCache.Lookup lookup = cache == null || isInTransaction() ? null : cache.lookup(shardKey(sql), args);
+        if (lookup != null && lookup.isHit()) {
+            return lookup.rows();
+        }
+        long started = QueryMetrics.start();
+        try (ConnectionLease lease = ConnectionProvider.reader()) {
+            long acquired = QueryMetrics.now(started);
+            PreparedStatement ps = lease.prepare(sql);
+            QueryHelper.mapParams(lease, sql, ps, args);
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                CachedRowSet rows = ROW_SET_FACTORY.createCachedRowSet();
+                rows.populate(resultSet);
+                QueryMetrics.record(sql, started, acquired, rows.size());
+                return lookup == null ? rows : cache.store(lookup, rows);
+            }
+        } catch (SQLException e) {
+            QueryMetrics.recordError(sql, started);
+            throw e;
+        }
+    }
+
+    public static <T> List<T> query(final String sql, final RowMapper<T> mapper, Object... args) throws SQLException {
+        long started = QueryMetrics.start();
+        try (ConnectionLease lease = ConnectionProvider.reader()) {
+            long acquired = QueryMetrics.now(started);
+            PreparedStatement ps = lease.prepare(sql);
+            QueryHelper.mapParams(lease, sql, ps, args);
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                List<T> rows = new ArrayList<>();
+                while (resultSet.next()) {
+                    rows.add(mapper.map(resultSet));
+                }
+                QueryMetrics.record(sql, started, acquired, rows.size());
+                return rows;
+            }
+        } catch (SQLException e) {
+            QueryMetrics.recordError(sql, started);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the query on every shard and concatenates the rows in shard order; without sharding this is
+     * {@link #query(String, RowMapper, Object...)}.
+     */
+    public static <T> List<T> queryAllShards(final String sql, final RowMapper<T> mapper, Object... args)
+            throws SQLException {
+        if (!ConnectionProvider.isSharded()) {
+            return query(sql, mapper, args);
+        }
+        List<T> rows = new ArrayList<>();
+        for (List<T> shardRows : onAllShards(() -> query(sql, mapper, args))) {
+            rows.addAll(shardRows);
+        }
+        return rows;
+    }
+
+    /**
+     * Runs the work once per shard, routed by {@link ConnectionProvider#onShard}, and returns the results in
+     * shard order. The shards are queried in parallel on the {@link AsyncQueryExecutor} threads, except when called
+     * from one of those threads or inside a transaction, where they are queried one after another. A shard the
+     * async executor has no room for is queried on the calling thread.
+     */
+    public static <T> List<T> onAllShards(final SqlCallable<T> work) throws SQLException {
+        int shards = ConnectionProvider.shardCount();
+        List<T> results = new ArrayList<>(shards);
+        if (shards == 1 || isInTransaction() || AsyncQueryExecutor.isWorkerThread()) {
+            for (int shard = 0; shard < shards; shard++) {
+                results.add(ConnectionProvider.onShard(shard, work::call));
+            }
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards - 1);
+        for (int shard = 1; shard < shards; shard++) {
+            int target = shard;
+            futures.add(AsyncQueryExecutor.supply(() -> ConnectionProvider.onShard(target, work::call)));
+        }
+        // the calling thread takes the first shard instead of just waiting
+        results.add(ConnectionProvider.onShard(0, work::call));
+        for (int shard = 1; shard < shards; shard++) {
+            try {
+                results.add(futures.get(shard - 1).join());
+            } catch (CompletionException e) {
+                if (!(e.getCause() instanceof RejectedExecutionException)) {
+                    throw unwrap(e.getCause());
+                }
+                results.add(ConnectionProvider.onShard(shard, work::call));
+            }
+        }
+        return results;
+    }
+
+    // rethrows what the work itself threw, as the sequential path would
+    private static SQLException unwrap(final Throwable cause) {
+        if (cause instanceof SQLException) {
+            return (SQLException) cause;
+        }
+        if (cause instanceof UncheckedSQLException) {
+            return ((UncheckedSQLException) cause).getCause();
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new SQLException(cause);
+    }
+
+    // the same statement returns different rows on different shards
+    private static String shardKey(final String sql) {
+        int shard = ConnectionProvider.currentShard();
+        return shard < 0 ? sql : "/* shard " + shard + " */ " + sql;
+    }
+
+    public static <T> Optional<T> queryForObject(final String sql, final RowMapper<T> mapper, Object... args)
+            throws SQLException {
+        return queryForObject(sql, mapper, null, args, 0);
+    }
+
+    /**
+     * Single-key lookup, e.g. by id: binds the key with {@code setInt}, so apart from the row itself nothing
+     * is allocated when the statement is cached and metrics are off.
+     */
+    public static <T> Optional<T> queryForObject(final String sql, final RowMapper<T> mapper, final int key)
+            throws SQLException {
+        return queryForObject(sql, mapper, null, null, key);
+    }
+
+    public static <T> Optional<T> queryForObject(final String sql, final RowMapper<T> mapper,
+                                                 final StatementBinder binder) throws SQLException {
+        return queryForObject(sql, mapper, binder, null, 0);
+    }
+
+    private static <T> Optional<T> queryForObject(final String sql, final RowMapper<T> mapper,
+                                                  final StatementBinder binder, final Object[] args, final int key)
+            throws SQLException {
+        long started = QueryMetrics.start();
+        try (ConnectionLease lease = ConnectionProvider.reader()) {
+            long acquired = QueryMetrics.now(started);
+            PreparedStatement ps = lease.prepare(sql);
+            if (binder != null) {
+                binder.bind(ps);
+            } else if (args != null) {
+                QueryHelper.mapParams(lease, sql, ps, args);
+            } else {
+                ps.setInt(1, key);
+            }
+            try (final ResultSet resultSet = ps.executeQuery()) {
+                Optional<T> row = resultSet.next() ? Optional.of(mapper.map(resultSet)) : Optional.empty();
+                QueryMetrics.record(sql, started, acquired, row.isPresent() ? 1 : 0);
+                return row;
+            }
+        } catch (SQLException e) {
+            QueryMetrics.recordError(sql, started);
+            throw e;
+        }
+    }
+
+    /**
+     * Lazily maps the rows of an open cursor. The stream holds a reader connection until it is exhausted or
+     * closed, so callers must close it (try-with-resources). Mapping failures surface as
+     * {@link UncheckedSQLException}. Metrics record the time to open the cursor; rows are added on close.
+     */
+    public static <T> Stream<T> stream(final String sql, final RowMapper<T> mapper, Object... args)
+            throws SQLException {
+        long started = QueryMetrics.start();
+        ConnectionLease lease = ConnectionProvider.reader();
+        long acquired = QueryMetrics.now(started);
+        PreparedStatement ps = null;
+        try {
+            // not taken from the statement cache: the cursor outlives this call and must not be reset by other
+            // queries the same thread might run on this connection meanwhile
+            ps = lease.connection().prepareStatement(sql);
+            ps.setFetchSize(DEFAULT_FETCH_SIZE);
+            QueryHelper.mapParams(ps, args);
+            ResultSetSpliterator<T> rows = new ResultSetSpliterator<>(sql, lease, ps, ps.executeQuery(), mapper);
+            QueryMetrics.record(sql, started, acquired, 0);
+            return StreamSupport.stream(rows, false).onClose(rows::close);
+        } catch (SQLException e) {
+            QueryMetrics.recordError(sql, started);
+            if (ps != null) {
+                ps.close();
+            }
+            lease.close();
+            throw e;
+        }
     }
 
     public static void delete(final String sql, Object... args) throws SQLException {
-        PreparedStatement ps = ConnectionProvider.getConnection().prepareStatement(sql);
-        QueryHelper.mapParams(ps, args);
-        ps.executeUpdate();
+        SingleWriter writer = handOff();
+        if (writer != null) {
+            writer.execute(() -> {
+                delete(sql, args);
+                return null;
+            });
+            return;
+        }
+        long started = QueryMetrics.start();
+        try (ConnectionLease lease = ConnectionProvider.writer()) {
+            long acquired = QueryMetrics.now(started);
+            PreparedStatement ps = lease.prepare(sql);
+            QueryHelper.mapParams(lease, sql, ps, args);
+            int deleted = ps.executeUpdate();
+            QueryMetrics.record(sql, started, acquired, deleted);
+        } catch (SQLException e) {
+            QueryMetrics.recordError(sql, started);
+            throw e;
+        }
+        recordChange(sql, -1, null);
+        notifyTableChanged(sql);
+    }
+
+    public static int update(final String sql, Object... args) throws SQLException {
+        SingleWriter writer = handOff();
+        if (writer != null) {
+            return writer.execute(() -> update(sql, args));
+        }
+        long started = QueryMetrics.start();
+        int updated;
+        try (ConnectionLease lease = ConnectionProvider.writer()) {
+            long acquired = QueryMetrics.now(started);
+            PreparedStatement ps = lease.prepare(sql);
+            QueryHelper.mapParams(lease, sql, ps, args);
+            updated = ps.executeUpdate();
+            QueryMetrics.record(sql, started, acquired, updated);
+        } catch (SQLException e) {
+            QueryMetrics.recordError(sql, started);
+            throw e;
+        }
+        recordChange(sql, -1, null);
+        notifyTableChanged(sql);
+        return updated;
     }
 
+    /**
+     * Runs the statements in one transaction; either all of them are applied or none.
+     */
     public static void executeUpdate(final List<String> sql, List<List<Object>> args) throws SQLException {
-        ConnectionProvider.getConnection().setAutoCommit(false);
-        for (int i = 0; i < sql.size(); i++) {
-            PreparedStatement ps = ConnectionProvider.getConnection().prepareStatement(sql.get(i));
-            QueryHelper.mapParams(ps, args.get(i));
-            ps.executeUpdate();
-            LOGGER.info(String.format("Query: %s executed.", sql.get(i)));
-        }
-        ConnectionProvider.getConnection().commit();
-        ConnectionProvider.getConnection().setAutoCommit(true);
+        inTransaction(() -> {
+            for (int i = 0; i < sql.size(); i++) {
+                update(sql.get(i), args.get(i).toArray());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Runs the work in a transaction on the writer connection and returns its result. All QueryExecutor calls made by
+     * the work join the transaction, reuse the writer's cached statements and see its uncommitted writes; the whole
+     * unit commits once. The transaction rolls back if the work throws.
+     * <p>
+     * A nested call runs in a savepoint, so its failure only undoes its own writes if the caller handles the
+     * exception. The outermost call is retried with backoff when the database is busy (locked by another process),
+     * so its work must not have side effects outside the database. Table change listeners are notified after commit.
+     */
+    public static <T> T inTransaction(final SqlCallable<T> work) throws SQLException {
+        Transaction transaction = TRANSACTION.get();
+        if (transaction != null) {
+            return inSavepoint(transaction, work);
+        }
+        SingleWriter writer = handOff();
+        if (writer != null) {
+            // the writer thread runs every write in a savepoint of its current transaction
+            return writer.execute(work);
+        }
+        long backoffMillis = BUSY_INITIAL_BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return inNewTransaction(work);
+            } catch (SQLException e) {
+                if (!isBusy(e) || attempt == BUSY_MAX_ATTEMPTS) {
+                    throw e;
+                }
+                LOGGER.info(String.format("Database busy, retrying transaction in %d ms (attempt %d)",
+                        backoffMillis, attempt));
+                sleep(backoffMillis + ThreadLocalRandom.current().nextLong(backoffMillis));
+                backoffMillis *= 2;
+            }
+        }
+    }
+
+    public static boolean isInTransaction() {
+        return TRANSACTION.get() != null;
+    }
+
+    private static <T> T inNewTransaction(final SqlCallable<T> work) throws SQLException {
+        try (ConnectionLease lease = ConnectionProvider.writer()) {
+            Connection connection = lease.connection();
+            boolean autoCommit = connection.getAutoCommit();
+            Transaction transaction = new Transaction(lease);
+            TRANSACTION.set(transaction);
+            transaction.enter();
+            try {
+                connection.setAutoCommit(false);
+                T result = work.call();
+                long started = QueryMetrics.start();
+                connection.commit();
+                QueryMetrics.record("COMMIT", started, started, 0);
+                TRANSACTION.remove();
+                for (WrittenTable written : transaction.writtenTables()) {
+                    fireTableChanged(written);
+                }
+                ChangeFeed.publish(transaction.changes());
+                return result;
+            } catch (SQLException | RuntimeException | Error e) {
+                rollback(connection, transaction, e);
+                throw e;
+            } finally {
+                TRANSACTION.remove();
+                restoreAutoCommit(connection, autoCommit);
+            }
+        }
+    }
+
+    private static <T> T inSavepoint(final Transaction transaction, final SqlCallable<T> work) throws SQLException {
+        Connection connection = transaction.lease().connection();
+        Savepoint savepoint = connection.setSavepoint();
+        int changesMark = transaction.changes().size();
+        transaction.enter();
+        try {
+            T result = work.call();
+            connection.releaseSavepoint(savepoint);
+            return result;
+        } catch (SQLException | RuntimeException | Error e) {
+            try {
+                connection.rollback(savepoint);
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException rollbackFailure) {
+                e.addSuppressed(rollbackFailure);
+            }
+            transaction.rollbackChangesTo(changesMark);
+            invalidateIdentities(transaction);
+            throw e;
+        } finally {
+            transaction.exit();
+        }
+    }
+
+    private static void rollback(final Connection connection, final Transaction transaction, final Throwable cause) {
+        try {
+            connection.rollback();
+        } catch (SQLException rollbackFailure) {
+            cause.addSuppressed(rollbackFailure);
+        }
+        invalidateIdentities(transaction);
+    }
+
+    // entities registered by writes that were rolled back must not be served from the identity maps
+    private static void invalidateIdentities(final Transaction transaction) {
+        if (!transaction.writtenTables().isEmpty()) {
+            IdentityMaps.invalidateAll();
+        }
+    }
+
+    private static void restoreAutoCommit(final Connection connection, final boolean autoCommit) {
+        try {
+            connection.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            LOGGER.info("Cannot restore auto-commit: " + e.getMessage());
+        }
+    }
+
+    private static boolean isBusy(final SQLException e) {
+        String message = e.getMessage();
+        return e.getErrorCode() == SQLITE_BUSY || e.getErrorCode() == SQLITE_LOCKED
+                || (message != null && (message.contains("SQLITE_BUSY") || message.contains("database is locked")));
+    }
+
+    private static void sleep(final long millis) throws SQLException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to retry a busy transaction", e);
+        }
+    }
+
+    /**
+     * Caches the results of {@link #read(String, Object...)} for up to {@code ttlMillis}, at most {@code maxEntries}
+     * of them. Writes made through QueryExecutor invalidate the results of queries reading the written tables;
+     * writes made around it (e.g. by another process) are only picked up once the entries expire.
+     */
+    public static synchronized void enableResultCache(final int maxEntries, final long ttlMillis) {
+        disableResultCache();
+        ResultCache cache = new ResultCache(maxEntries, ttlMillis);
+        resultCacheInvalidator = (table, operation) -> cache.tableChanged(table);
+        addTableChangeListener(resultCacheInvalidator);
+        resultCache = cache;
+    }
+
+    public static synchronized void disableResultCache() {
+        if (resultCache != null) {
+            removeTableChangeListener(resultCacheInvalidator);
+            resultCache = null;
+            resultCacheInvalidator = null;
+        }
+    }
+
+    public static Optional<ResultCacheStatistics> resultCacheStatistics() {
+        ResultCache cache = resultCache;
+        return cache == null ? Optional.empty() : Optional.of(cache.statistics());
+    }
+
+    /**
+     * Funnels every write made through QueryExecutor to one dedicated thread that owns the writer connection.
+     * Callers block until their write has committed; writes queued meanwhile, up to {@code maxTransactionSize},
+     * share one transaction. Work passed to {@link #inTransaction(SqlCallable)} runs on that thread too, so it must
+     * not wait for other writes. Reads are not affected and keep using the reader connections.
+     */
+    public static synchronized void enableSingleWriter(final int queueCapacity, final int maxTransactionSize) {
+        if (ConnectionProvider.isSharded()) {
+            // one transaction cannot span several shard files
+            throw new IllegalStateException("The single writer does not support a sharded database");
+        }
+        disableSingleWriter();
+        singleWriter = new SingleWriter(queueCapacity, maxTransactionSize);
+    }
+
+    /**
+     * Goes back to writing on the calling thread once the writes already queued have been applied.
+     */
+    public static synchronized void disableSingleWriter() {
+        SingleWriter writer = singleWriter;
+        if (writer != null) {
+            singleWriter = null;
+            writer.close();
+        }
+    }
+
+    public static Optional<SingleWriterStatistics> singleWriterStatistics() {
+        SingleWriter writer = singleWriter;
+        return writer == null ? Optional.empty() : Optional.of(writer.statistics());
+    }
+
+    private static SingleWriter handOff() {
+        SingleWriter writer = singleWriter;
+        return writer == null || writer.isWriterThread() || isInTransaction() ? null : writer;
+    }
+
+    public static void addTableChangeListener(final TableChangeListener listener) {
+        TABLE_CHANGE_LISTENERS.add(listener);
+    }
+
+    public static void removeTableChangeListener(final TableChangeListener listener) {
+        TABLE_CHANGE_LISTENERS.remove(listener);
+    }
+
+    private static void recordChange(final String sql, final int id, final Object[] args) {
+        if (!ChangeFeed.isActive()) {
+            return;
+        }
+        WrittenTable written = WrittenTable.of(sql);
+        if (!written.isWrite()) {
+            return;
+        }
+        ChangeEvent change = ChangeEvent.of(written, id, args);
+        Transaction transaction = TRANSACTION.get();
+        if (transaction != null) {
+            transaction.changed(change);
+        } else {
+            ChangeFeed.publish(List.of(change));
+        }
+    }
+
+    private static void recordChanges(final String insertSql, final List<Object[]> rows, final int[] ids,
+                                      final int from, final int to) {
+        if (!ChangeFeed.isActive()) {
+            return;
+        }
+        WrittenTable written = WrittenTable.of(insertSql);
+        if (!written.isWrite()) {
+            return;
+        }
+        Transaction transaction = TRANSACTION.get();
+        List<ChangeEvent> changes = transaction != null ? transaction.changes() : new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            changes.add(ChangeEvent.of(written, ids[i], rows.get(i)));
+        }
+        if (transaction == null) {
+            ChangeFeed.publish(changes);
+        }
+    }
+
+    private static void notifyTableChanged(final String sql) {
+        Transaction transaction = TRANSACTION.get();
+        if (transaction == null && TABLE_CHANGE_LISTENERS.isEmpty()) {
+            return;
+        }
+        WrittenTable written = WrittenTable.of(sql);
+        if (!written.isWrite()) {
+            return;
+        }
+        if (transaction != null) {
+            transaction.written(written);
+        } else {
+            fireTableChanged(written);
+        }
+    }
+
+    private static void fireTableChanged(final WrittenTable written) {
+        for (TableChangeListener listener : TABLE_CHANGE_LISTENERS) {
+            listener.tableChanged(written.table(), written.operation());
+        }
     }
 }
@@ -0,0 +1,135 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-SQL-template call counts, latency histograms, row counts and connection wait times. Disabled by default;
+ * while disabled the executor only pays for a volatile read per query.
+ */
+public final class QueryMetrics {
+
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private static final Map<String, Recorder> RECORDERS = new ConcurrentHashMap<>();
+
+    private static volatile boolean enabled = false;
+
+    private QueryMetrics() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void reset() {
+        RECORDERS.clear();
+    }
+
+    static long start() {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    static long now(final long started) {
+        return started == NOT_TIMED ? NOT_TIMED : System.nanoTime();
+    }
+
+    /**
+     * @param started value of {@link #start()} taken before waiting for a connection
+     * @param acquired value of {@link #now(long)} taken once the connection was leased
+     */
+    static void record(final String sql, final long started, final long acquired, final long rows) {
+        if (started != NOT_TIMED) {
+            recorder(sql).record(System.nanoTime() - acquired, acquired - started, rows);
+        }
+    }
+
+    static void recordError(final String sql, final long started) {
+        if (started != NOT_TIMED) {
+            recorder(sql).errors.increment();
+        }
+    }
+
+    static void recordRows(final String sql, final long rows) {
+        if (enabled) {
+            recorder(sql).rows.add(rows);
+        }
+    }
+
+    private static Recorder recorder(final String sql) {
+        Recorder recorder = RECORDERS.get(sql);
+        return recorder != null ? recorder : RECORDERS.computeIfAbsent(sql, key -> new Recorder());
+    }
+
+    public static List<QueryStatistics> snapshot() {
+        List<QueryStatistics> statistics = new ArrayList<>(RECORDERS.size());
+        RECORDERS.forEach((sql, recorder) -> statistics.add(recorder.snapshot(sql)));
+        statistics.sort(Comparator.comparingLong(QueryStatistics::totalNanos).reversed());
+        return statistics;
+    }
+
+    public static QueryStatistics statistics(final String sql) {
+        Recorder recorder = RECORDERS.get(sql);
+        return recorder == null ? new Recorder().snapshot(sql) : recorder.snapshot(sql);
+    }
+
+    /**
+     * One line per SQL template, most expensive (by total time) first.
+     */
+    public static String dump() {
+        StringBuilder sb = new StringBuilder("Query metrics").append(enabled ? "" : " (disabled)").append(':');
+        for (QueryStatistics statistics : snapshot()) {
+            sb.append(System.lineSeparator()).append(statistics);
+        }
+        return sb.toString();
+    }
+
+    private static final class Recorder {
+
+        private final LongAdder calls = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LongAdder rows = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        private final LongAdder totalWaitNanos = new LongAdder();
+
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private void record(final long nanos, final long waitNanos, final long rowCount) {
+            calls.increment();
+            rows.add(rowCount);
+            totalNanos.add(nanos);
+            latencies.record(nanos);
+            totalWaitNanos.add(waitNanos);
+            if (waitNanos > maxWaitNanos.get()) {
+                maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+            }
+        }
+
+        private QueryStatistics snapshot(final String sql) {
+            long[] histogram = latencies.snapshot();
+            return new QueryStatistics(sql, calls.sum(), errors.sum(), rows.sum(), totalNanos.sum(),
+                    LatencyHistogram.percentile(histogram, 50), LatencyHistogram.percentile(histogram, 99),
+                    latencies.max(), totalWaitNanos.sum(), maxWaitNanos.get());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package pl.edu.agh.iisg.to.executor;
+
+public final class QueryStatistics {
+
+    private final String sql;
+
+    private final long calls;
+
+    private final long errors;
+
+    private final long rows;
+
+    private final long totalNanos;
+
+    private final long p50Nanos;
+
+    private final long p99Nanos;
+
+    private final long maxNanos;
+
+    private final long totalConnectionWaitNanos;
+
+    private final long maxConnectionWaitNanos;
+
+    QueryStatistics(final String sql, final long calls, final long errors, final long rows, final long totalNanos,
+                    final long p50Nanos, final long p99Nanos, final long maxNanos,
+                    final long totalConnectionWaitNanos, final long maxConnectionWaitNanos) {
+        this.sql = sql;
+        this.calls = calls;
+        this.errors = errors;
+        this.rows = rows;
+        this.totalNanos = totalNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.maxNanos = maxNanos;
+        this.totalConnectionWaitNanos = totalConnectionWaitNanos;
+        this.maxConnectionWaitNanos = maxConnectionWaitNanos;
+    }
+
+    public String sql() {
+        return sql;
+    }
+
+    public long calls() {
+        return calls;
+    }
+
+    public long errors() {
+        return errors;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    public long p50Nanos() {
+        return p50Nanos;
+    }
+
+    public long p99Nanos() {
+        return p99Nanos;
+    }
+
+    public long maxNanos() {
+        return maxNanos;
+    }
+
+    public long totalConnectionWaitNanos() {
+        return totalConnectionWaitNanos;
+    }
+
+    public long maxConnectionWaitNanos() {
+        return maxConnectionWaitNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%8d calls %6d err %10d rows  p50 %9.1f us  p99 %9.1f us  max %9.1f us  " +
+                        "wait avg %7.1f us  max %7.1f us  %s",
+                calls, errors, rows, p50Nanos / 1_000.0, p99Nanos / 1_000.0, maxNanos / 1_000.0,
+                calls == 0 ? 0.0 : totalConnectionWaitNanos / 1_000.0 / calls, maxConnectionWaitNanos / 1_000.0, sql);
+    }
+}
@@ -0,0 +1,77 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+import pl.edu.agh.iisg.to.connection.ConnectionLease;
+
+/**
+ * Walks an open cursor row by row and releases the cursor, its statement and the connection lease
+ * as soon as the rows are exhausted or the owning stream is closed.
+ */
+final class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+
+    private final String sql;
+
+    private final ConnectionLease lease;
+
+    private final PreparedStatement statement;
+
+    private final ResultSet resultSet;
+
+    private final RowMapper<T> mapper;
+
+    private long rows = 0;
+
+    private boolean closed = false;
+
+    ResultSetSpliterator(final String sql, final ConnectionLease lease, final PreparedStatement statement, final ResultSet resultSet,
+                         final RowMapper<T> mapper) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.sql = sql;
+        this.lease = lease;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super T> action) {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (!resultSet.next()) {
+                close();
+                return false;
+            }
+            rows++;
+            action.accept(mapper.map(resultSet));
+            return true;
+        } catch (SQLException e) {
+            close();
+            throw new UncheckedSQLException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        QueryMetrics.recordRows(sql, rows);
+        try {
+            resultSet.close();
+            statement.close();
+        } catch (SQLException e) {
+            throw new UncheckedSQLException(e);
+        } finally {
+            lease.close();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+
+/**
+ * A dedicated thread that owns the writer connection: callers hand their writes over through a bounded queue and
+ * wait for the result, while their reads keep going to the reader connections. Whatever is waiting when the thread
+ * picks up work, up to {@code maxTransactionSize} writes, runs in one transaction, each write in its own savepoint,
+ * so a failing write only undoes itself. A write returns once the shared transaction has committed.
+ * <p>
+ * If the transaction itself fails to commit, its writes are retried one by one.
+ */
+final class SingleWriter implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final int maxTransactionSize;
+
+    private final BlockingQueue<WriteTask<?>> queue;
+
+    private final Thread thread;
+
+    private volatile boolean closed = false;
+
+    private final long startedAt = System.nanoTime();
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong transactions = new AtomicLong();
+
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+
+    private final LatencyHistogram transactionLatency = new LatencyHistogram();
+
+    SingleWriter(final int queueCapacity, final int maxTransactionSize) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        if (maxTransactionSize < 1) {
+            throw new IllegalArgumentException("Transaction size must be positive: " + maxTransactionSize);
+        }
+        this.maxTransactionSize = maxTransactionSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.thread = new Thread(this::run, "single-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    boolean isWriterThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Queues the work and waits for its result. When the queue stays full for the pool checkout timeout the write
+     * is rejected. An interrupted caller stops waiting, but the work may still be applied.
+     */
+    <T> T execute(final SqlCallable<T> work) throws SQLException {
+        WriteTask<T> task = new WriteTask<>(work);
+        enqueue(task);
+        try {
+            return task.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the single writer", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    SingleWriterStatistics statistics() {
+        long[] waits = queueLatency.snapshot();
+        long[] commits = transactionLatency.snapshot();
+        return new SingleWriterStatistics(queue.size(), queue.size() + queue.remainingCapacity(), maxQueueDepth.get(),
+                submitted.get(), completed.get(), failed.get(), rejected.get(), transactions.get(),
+                System.nanoTime() - startedAt,
+                LatencyHistogram.percentile(waits, 50), LatencyHistogram.percentile(waits, 99), queueLatency.max(),
+                LatencyHistogram.percentile(commits, 50), LatencyHistogram.percentile(commits, 99),
+                transactionLatency.max());
+    }
+
+    /**
+     * Stops accepting writes, applies everything still queued and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        // not interrupted: an interrupt could hit the thread while it waits for the writer connection
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        WriteTask<?> late;
+        while ((late = queue.poll()) != null) {
+            late.future.completeExceptionally(new SQLException("Single writer is closed"));
+        }
+    }
+
+    private void enqueue(final WriteTask<?> task) throws SQLException {
+        if (closed) {
+            throw new SQLException("Single writer is closed");
+        }
+        boolean queued;
+        try {
+            queued = queue.offer(task, ConnectionProvider.settings().checkoutTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the single writer queue", e);
+        }
+        if (!queued) {
+            rejected.incrementAndGet();
+            throw new SQLException("Single writer queue is full (" + queue.size() + " writes waiting)");
+        }
+        // close() may have finished its final drain while we were offering; whoever takes the task out completes it
+        if (closed && queue.remove(task)) {
+            throw new SQLException("Single writer is closed");
+        }
+        submitted.incrementAndGet();
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    private void run() {
+        List<WriteTask<?>> batch = new ArrayList<>(maxTransactionSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                WriteTask<?> first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxTransactionSize - 1);
+            } catch (InterruptedException e) {
+                // only close() is expected to stop this thread; treat a stray interrupt the same way
+                closed = true;
+                queue.drainTo(batch, maxTransactionSize);
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(final List<WriteTask<?>> batch) {
+        long started = System.nanoTime();
+        for (WriteTask<?> task : batch) {
+            queueLatency.record(started - task.enqueuedAt);
+        }
+        Object[] results = new Object[batch.size()];
+        Throwable[] failures = new Throwable[batch.size()];
+        try {
+            QueryExecutor.inTransaction(() -> {
+                // a busy database makes the transaction start over, so every attempt begins with clean outcomes
+                Arrays.fill(results, null);
+                Arrays.fill(failures, null);
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        results[i] = QueryExecutor.inTransaction(batch.get(i).work);
+                    } catch (SQLException | RuntimeException | Error e) {
+                        failures[i] = e;
+                    }
+                }
+                return null;
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                complete(batch.get(i), results[i], failures[i]);
+            }
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.info("Single writer transaction of " + batch.size() + " writes failed, retrying one by one: "
+                    + e.getMessage());
+            for (WriteTask<?> task : batch) {
+                try {
+                    complete(task, QueryExecutor.inTransaction(task.work), null);
+                } catch (SQLException | RuntimeException | Error taskFailure) {
+                    complete(task, null, taskFailure);
+                }
+            }
+        }
+        transactions.incrementAndGet();
+        transactionLatency.record(System.nanoTime() - started);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void complete(final WriteTask<T> task, final Object result, final Throwable failure) {
+        if (failure != null) {
+            failed.incrementAndGet();
+            task.future.completeExceptionally(failure);
+        } else {
+            completed.incrementAndGet();
+            task.future.complete((T) result);
+        }
+    }
+
+    private static final class WriteTask<T> {
+
+        private final SqlCallable<T> work;
+
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private final long enqueuedAt = System.nanoTime();
+
+        private WriteTask(final SqlCallable<T> work) {
+            this.work = work;
+        }
+    }
+}
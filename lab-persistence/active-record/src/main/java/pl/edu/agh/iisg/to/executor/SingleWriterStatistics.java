@@ -0,0 +1,132 @@
+package pl.edu.agh.iisg.to.executor;
+
+public final class SingleWriterStatistics {
+
+    private final int queueDepth;
+
+    private final int queueCapacity;
+
+    private final long maxQueueDepth;
+
+    private final long submitted;
+
+    private final long completed;
+
+    private final long failed;
+
+    private final long rejected;
+
+    private final long transactions;
+
+    private final long uptimeNanos;
+
+    private final long p50QueueWaitNanos;
+
+    private final long p99QueueWaitNanos;
+
+    private final long maxQueueWaitNanos;
+
+    private final long p50TransactionNanos;
+
+    private final long p99TransactionNanos;
+
+    private final long maxTransactionNanos;
+
+    SingleWriterStatistics(final int queueDepth, final int queueCapacity, final long maxQueueDepth,
+                           final long submitted, final long completed, final long failed, final long rejected,
+                           final long transactions, final long uptimeNanos,
+                           final long p50QueueWaitNanos, final long p99QueueWaitNanos, final long maxQueueWaitNanos,
+                           final long p50TransactionNanos, final long p99TransactionNanos,
+                           final long maxTransactionNanos) {
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+        this.maxQueueDepth = maxQueueDepth;
+        this.submitted = submitted;
+        this.completed = completed;
+        this.failed = failed;
+        this.rejected = rejected;
+        this.transactions = transactions;
+        this.uptimeNanos = uptimeNanos;
+        this.p50QueueWaitNanos = p50QueueWaitNanos;
+        this.p99QueueWaitNanos = p99QueueWaitNanos;
+        this.maxQueueWaitNanos = maxQueueWaitNanos;
+        this.p50TransactionNanos = p50TransactionNanos;
+        this.p99TransactionNanos = p99TransactionNanos;
+        this.maxTransactionNanos = maxTransactionNanos;
+    }
+
+    public int queueDepth() {
+        return queueDepth;
+    }
+
+    public int queueCapacity() {
+        return queueCapacity;
+    }
+
+    public long maxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long submitted() {
+        return submitted;
+    }
+
+    public long completed() {
+        return completed;
+    }
+
+    public long failed() {
+        return failed;
+    }
+
+    public long rejected() {
+        return rejected;
+    }
+
+    public long transactions() {
+        return transactions;
+    }
+
+    public double averageWritesPerTransaction() {
+        return transactions == 0 ? 0.0 : (double) (completed + failed) / transactions;
+    }
+
+    public double writesPerSecond() {
+        return uptimeNanos == 0 ? 0.0 : (completed + failed) * 1_000_000_000.0 / uptimeNanos;
+    }
+
+    public long p50QueueWaitNanos() {
+        return p50QueueWaitNanos;
+    }
+
+    public long p99QueueWaitNanos() {
+        return p99QueueWaitNanos;
+    }
+
+    public long maxQueueWaitNanos() {
+        return maxQueueWaitNanos;
+    }
+
+    public long p50TransactionNanos() {
+        return p50TransactionNanos;
+    }
+
+    public long p99TransactionNanos() {
+        return p99TransactionNanos;
+    }
+
+    public long maxTransactionNanos() {
+        return maxTransactionNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SingleWriterStatistics{queueDepth=%d/%d, maxQueueDepth=%d, submitted=%d, " +
+                        "completed=%d, failed=%d, rejected=%d, transactions=%d, writesPerTransaction=%.1f, " +
+                        "writesPerSecond=%.1f, p50QueueWaitMicros=%.1f, p99QueueWaitMicros=%.1f, " +
+                        "p50TransactionMicros=%.1f, p99TransactionMicros=%.1f}",
+                queueDepth, queueCapacity, maxQueueDepth, submitted, completed, failed, rejected, transactions,
+                averageWritesPerTransaction(), writesPerSecond(), p50QueueWaitNanos / 1_000.0,
+                p99QueueWaitNanos / 1_000.0, p50TransactionNanos / 1_000.0, p99TransactionNanos / 1_000.0);
+    }
+}
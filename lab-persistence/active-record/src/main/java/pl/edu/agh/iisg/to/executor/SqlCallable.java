@@ -0,0 +1,10 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface SqlCallable<T> {
+
+    T call() throws SQLException;
+
+}
@@ -0,0 +1,14 @@
+package pl.edu.agh.iisg.to.executor;
+
+@FunctionalInterface
+public interface TableChangeListener {
+
+    enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    void tableChanged(String table, Operation operation);
+
+}
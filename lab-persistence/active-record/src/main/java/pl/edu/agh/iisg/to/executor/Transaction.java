@@ -0,0 +1,61 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import pl.edu.agh.iisg.to.connection.ConnectionLease;
+
+/**
+ * State of the transaction the current thread runs in {@link QueryExecutor#inTransaction(SqlCallable)}.
+ */
+final class Transaction {
+
+    private final ConnectionLease lease;
+
+    private final Set<WrittenTable> written = new LinkedHashSet<>();
+
+    private final List<ChangeEvent> changes = new ArrayList<>();
+
+    private int depth = 0;
+
+    Transaction(final ConnectionLease lease) {
+        this.lease = lease;
+    }
+
+    ConnectionLease lease() {
+        return lease;
+    }
+
+    int enter() {
+        return ++depth;
+    }
+
+    int exit() {
+        return --depth;
+    }
+
+    void written(final WrittenTable table) {
+        written.add(table);
+    }
+
+    Set<WrittenTable> writtenTables() {
+        return written;
+    }
+
+    void changed(final ChangeEvent change) {
+        changes.add(change);
+    }
+
+    List<ChangeEvent> changes() {
+        return changes;
+    }
+
+    /**
+     * Drops the changes recorded after {@code mark}, a size of {@link #changes()} taken when a savepoint was set.
+     */
+    void rollbackChangesTo(final int mark) {
+        changes.subList(mark, changes.size()).clear();
+    }
+}
@@ -0,0 +1,17 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.sql.SQLException;
+
+public class UncheckedSQLException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public UncheckedSQLException(final SQLException cause) {
+        super(cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
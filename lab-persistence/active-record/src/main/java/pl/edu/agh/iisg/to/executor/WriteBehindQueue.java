@@ -0,0 +1,222 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+
+/**
+ * Group commit for a single INSERT statement: submitted rows are queued and a background thread writes them with
+ * {@link QueryExecutor#executeBatch(String, List, int)}, one transaction per flush. A flush starts once
+ * {@code maxBatchRows} rows are waiting or {@code flushIntervalMillis} after the oldest waiting row was submitted.
+ * The future of a row completes with its generated id after the transaction has committed.
+ * <p>
+ * At most {@code queueCapacity} rows wait at a time. When the queue is full, {@link #submit(Object...)} blocks the
+ * caller for up to the pool checkout timeout and then rejects the row, so a slow flusher slows the producers down
+ * instead of letting the queue grow without bound.
+ * <p>
+ * If a flush fails, its rows are retried one by one, so that only the offending rows fail.
+ */
+public final class WriteBehindQueue implements AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    private final String insertSql;
+
+    private final long flushIntervalNanos;
+
+    private final int maxBatchRows;
+
+    private final BlockingQueue<PendingRow> queue;
+
+    private final Thread flusher;
+
+    private volatile boolean closed = false;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong flushes = new AtomicLong();
+
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+    public WriteBehindQueue(final String insertSql, final long flushIntervalMillis, final int maxBatchRows) {
+        this(insertSql, flushIntervalMillis, maxBatchRows, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public WriteBehindQueue(final String insertSql, final long flushIntervalMillis, final int maxBatchRows,
+                            final int queueCapacity) {
+        if (flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("Flush interval must be positive: " + flushIntervalMillis);
+        }
+        if (maxBatchRows < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatchRows);
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        this.insertSql = insertSql;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxBatchRows = maxBatchRows;
+        this.flusher = new Thread(this::run, "write-behind-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queues the row, waiting for room while the queue is full. The returned future fails with a
+     * {@link RejectedExecutionException} when the queue is closed or stays full for the pool checkout timeout.
+     */
+    public CompletableFuture<Integer> submit(Object... args) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new RejectedExecutionException("Write-behind queue is closed"));
+            return future;
+        }
+        PendingRow row = new PendingRow(args, future);
+        boolean queued;
+        try {
+            queued = queue.offer(row, ConnectionProvider.settings().checkoutTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new RejectedExecutionException("Interrupted while waiting for the queue", e));
+            return future;
+        }
+        if (!queued) {
+            rejected.incrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException(
+                    "Write-behind queue is full (" + queue.size() + " rows waiting)"));
+            return future;
+        }
+        // close() may have finished its final drain while we were offering; whoever takes the row out completes it
+        if (closed && queue.remove(row)) {
+            future.completeExceptionally(new RejectedExecutionException("Write-behind queue is closed"));
+            return future;
+        }
+        submitted.incrementAndGet();
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+        return future;
+    }
+
+    public WriteBehindStatistics statistics() {
+        long[] latencies = flushLatency.snapshot();
+        return new WriteBehindStatistics(queue.size(), queue.size() + queue.remainingCapacity(), maxQueueDepth.get(),
+                submitted.get(), written.get(), failed.get(), rejected.get(), flushes.get(),
+                LatencyHistogram.percentile(latencies, 50),
+                LatencyHistogram.percentile(latencies, 99), flushLatency.max());
+    }
+
+    /**
+     * Stops accepting rows, writes everything still queued and stops the background thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        // not interrupted: an interrupt could hit the flusher while it waits for the writer connection
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingRow late;
+        while ((late = queue.poll()) != null) {
+            late.future.completeExceptionally(new RejectedExecutionException("Write-behind queue is closed"));
+        }
+    }
+
+    private void run() {
+        List<PendingRow> batch = new ArrayList<>(maxBatchRows);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingRow first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.submittedAt + flushIntervalNanos;
+                while (batch.size() < maxBatchRows && !closed) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRow next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // only close() is expected to stop this thread; treat a stray interrupt the same way
+                closed = true;
+            }
+            while (batch.size() < maxBatchRows && closed) {
+                PendingRow next = queue.poll();
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(final List<PendingRow> batch) {
+        long started = System.nanoTime();
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        for (PendingRow row : batch) {
+            rows.add(row.args);
+        }
+        try {
+            int[] ids = QueryExecutor.executeBatch(insertSql, rows, rows.size());
+            written.addAndGet(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                batch.get(i).future.complete(ids[i]);
+            }
+        } catch (SQLException e) {
+            LOGGER.info("Write-behind flush of " + batch.size() + " rows failed, retrying one by one: " + e.getMessage());
+            for (PendingRow row : batch) {
+                try {
+                    row.future.complete(QueryExecutor.createAndObtainId(insertSql, row.args));
+                    written.incrementAndGet();
+                } catch (SQLException rowFailure) {
+                    failed.incrementAndGet();
+                    row.future.completeExceptionally(rowFailure);
+                }
+            }
+        }
+        flushes.incrementAndGet();
+        flushLatency.record(System.nanoTime() - started);
+    }
+
+    private static final class PendingRow {
+
+        private final Object[] args;
+
+        private final CompletableFuture<Integer> future;
+
+        private final long submittedAt = System.nanoTime();
+
+        private PendingRow(final Object[] args, final CompletableFuture<Integer> future) {
+            this.args = args;
+            this.future = future;
+        }
+    }
+}
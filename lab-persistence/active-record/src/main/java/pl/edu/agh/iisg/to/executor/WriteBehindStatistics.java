@@ -0,0 +1,101 @@
+package pl.edu.agh.iisg.to.executor;
+
+public final class WriteBehindStatistics {
+
+    private final int queueDepth;
+
+    private final int queueCapacity;
+
+    private final long maxQueueDepth;
+
+    private final long submitted;
+
+    private final long written;
+
+    private final long failed;
+
+    private final long rejected;
+
+    private final long flushes;
+
+    private final long p50FlushNanos;
+
+    private final long p99FlushNanos;
+
+    private final long maxFlushNanos;
+
+    WriteBehindStatistics(final int queueDepth, final int queueCapacity, final long maxQueueDepth,
+                          final long submitted, final long written, final long failed, final long rejected,
+                          final long flushes, final long p50FlushNanos, final long p99FlushNanos,
+                          final long maxFlushNanos) {
+        this.queueDepth = queueDepth;
+        this.queueCapacity = queueCapacity;
+        this.maxQueueDepth = maxQueueDepth;
+        this.submitted = submitted;
+        this.written = written;
+        this.failed = failed;
+        this.rejected = rejected;
+        this.flushes = flushes;
+        this.p50FlushNanos = p50FlushNanos;
+        this.p99FlushNanos = p99FlushNanos;
+        this.maxFlushNanos = maxFlushNanos;
+    }
+
+    public int queueDepth() {
+        return queueDepth;
+    }
+
+    public int queueCapacity() {
+        return queueCapacity;
+    }
+
+    public long maxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long submitted() {
+        return submitted;
+    }
+
+    public long written() {
+        return written;
+    }
+
+    public long failed() {
+        return failed;
+    }
+
+    public long rejected() {
+        return rejected;
+    }
+
+    public long flushes() {
+        return flushes;
+    }
+
+    public double averageRowsPerFlush() {
+        return flushes == 0 ? 0.0 : (double) (written + failed) / flushes;
+    }
+
+    public long p50FlushNanos() {
+        return p50FlushNanos;
+    }
+
+    public long p99FlushNanos() {
+        return p99FlushNanos;
+    }
+
+    public long maxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WriteBehindStatistics{queueDepth=%d/%d, maxQueueDepth=%d, submitted=%d, written=%d, " +
+                        "failed=%d, rejected=%d, flushes=%d, rowsPerFlush=%.1f, p50FlushMicros=%.1f, " +
+                        "p99FlushMicros=%.1f}",
+                queueDepth, queueCapacity, maxQueueDepth, submitted, written, failed, rejected, flushes,
+                averageRowsPerFlush(),
+                p50FlushNanos / 1_000.0, p99FlushNanos / 1_000.0);
+    }
+}
@@ -0,0 +1,99 @@
+package pl.edu.agh.iisg.to.executor;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+final class WrittenTable {
+
+    private static final Pattern WRITE = Pattern.compile(
+            "^\\s*(INSERT(?:\\s+OR\\s+\\w+)?\\s+INTO|REPLACE\\s+INTO|UPDATE(?:\\s+OR\\s+\\w+)?|DELETE\\s+FROM)\\s+([A-Za-z_][A-Za-z0-9_.]*)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern INSERT_COLUMNS = Pattern.compile("^[^(]*\\(([^)]*)\\)\\s*VALUES", Pattern.CASE_INSENSITIVE);
+
+    private static final WrittenTable NONE = new WrittenTable(null, null, new String[0], false);
+
+    private static final Map<String, WrittenTable> PARSED = new ConcurrentHashMap<>();
+
+    private final String table;
+
+    private final TableChangeListener.Operation operation;
+
+    private final String[] columns;
+
+    private final boolean conflictClause;
+
+    private WrittenTable(final String table, final TableChangeListener.Operation operation, final String[] columns,
+                         final boolean conflictClause) {
+        this.table = table;
+        this.operation = operation;
+        this.columns = columns;
+        this.conflictClause = conflictClause;
+    }
+
+    static WrittenTable of(final String sql) {
+        return PARSED.computeIfAbsent(sql, WrittenTable::parse);
+    }
+
+    private static WrittenTable parse(final String sql) {
+        Matcher matcher = WRITE.matcher(sql);
+        if (!matcher.find()) {
+            return NONE;
+        }
+        String verb = matcher.group(1).toUpperCase(Locale.ROOT);
+        String table = matcher.group(2).toLowerCase(Locale.ROOT);
+        int schemaSeparator = table.lastIndexOf('.');
+        if (schemaSeparator >= 0) {
+            table = table.substring(schemaSeparator + 1);
+        }
+        boolean conflictClause = verb.startsWith("REPLACE") || verb.matches("\\w+\\s+OR\\s.*");
+        if (verb.startsWith("INSERT") || verb.startsWith("REPLACE")) {
+            return new WrittenTable(table, TableChangeListener.Operation.INSERT, insertColumns(sql), conflictClause);
+        }
+        if (verb.startsWith("DELETE")) {
+            return new WrittenTable(table, TableChangeListener.Operation.DELETE, NONE.columns, false);
+        }
+        return new WrittenTable(table, TableChangeListener.Operation.UPDATE, NONE.columns, conflictClause);
+    }
+
+    private static String[] insertColumns(final String sql) {
+        Matcher matcher = INSERT_COLUMNS.matcher(sql);
+        if (!matcher.find()) {
+            return NONE.columns;
+        }
+        String[] columns = matcher.group(1).split(",");
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columns[i].trim().toLowerCase(Locale.ROOT);
+        }
+        return columns;
+    }
+
+    boolean isWrite() {
+        return table != null;
+    }
+
+    String table() {
+        return table;
+    }
+
+    TableChangeListener.Operation operation() {
+        return operation;
+    }
+
+    /**
+     * Column names of an INSERT with an explicit column list, in parameter order; empty otherwise.
+     */
+    String[] columns() {
+        return columns;
+    }
+
+    /**
+     * Whether the statement has an OR IGNORE / OR REPLACE style clause, so a row may be skipped or overwrite another.
+     */
+    boolean hasConflictClause() {
+        return conflictClause;
+    }
+}
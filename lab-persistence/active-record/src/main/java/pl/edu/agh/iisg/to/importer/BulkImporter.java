@@ -0,0 +1,219 @@
+package pl.edu.agh.iisg.to.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import pl.edu.agh.iisg.to.executor.BatchResult;
+import pl.edu.agh.iisg.to.executor.QueryExecutor;
+
+/**
+ * Loads CSV files (with a header line) straight into the tables through batched inserts. Foreign keys are resolved
+ * against in-memory maps of index_number and course name, seeded from the database on first use:
+ * <ul>
+ *     <li>students: first_name, last_name, index_number</li>
+ *     <li>courses: name</li>
+ *     <li>enrollments: index_number, course_name</li>
+ *     <li>grades: index_number, course_name, grade</li>
+ * </ul>
+ */
+public final class BulkImporter {
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private static final String INSERT_STUDENT_SQL =
+            "INSERT INTO student (first_name, last_name, index_number) VALUES (?, ?, ?)";
+
+    private static final String INSERT_COURSE_SQL = "INSERT INTO course (name) VALUES (?);";
+
+    // enrollments already in the database are not known up front, so SQLite skips them and the report counts them
+    private static final String INSERT_ENROLLMENT_SQL =
+            "INSERT OR IGNORE INTO student_course (student_id, course_id) VALUES (?, ?);";
+
+    private static final String INSERT_GRADE_SQL = "INSERT INTO grade (grade, student_id, course_id) VALUES (?, ?, ?);";
+
+    private final int batchSize;
+
+    private final Map<Integer, Integer> studentIds = new HashMap<>();
+
+    private final Map<String, Integer> courseIds = new HashMap<>();
+
+    private boolean keysLoaded = false;
+
+    public BulkImporter() {
+        this(QueryExecutor.DEFAULT_BATCH_SIZE);
+    }
+
+    public BulkImporter(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public ImportReport importStudents(final Reader input) throws IOException, SQLException {
+        loadKeys();
+        Set<Integer> pending = new HashSet<>();
+        return importRows("students", input, INSERT_STUDENT_SQL, 3, csv -> {
+            if (csv.isEmpty(0) || csv.isEmpty(1)) {
+                throw new RejectedRow("missing name");
+            }
+            int indexNumber = csv.intField(2);
+            if (studentIds.containsKey(indexNumber) || !pending.add(indexNumber)) {
+                throw new RejectedRow("duplicate index number " + indexNumber);
+            }
+            return new Object[] {csv.stringField(0), csv.stringField(1), indexNumber};
+        }, (rows, ids) -> {
+            for (int i = 0; i < ids.length; i++) {
+                Integer indexNumber = (Integer) rows.get(i)[2];
+                studentIds.put(indexNumber, ids[i]);
+                pending.remove(indexNumber);
+            }
+        });
+    }
+
+    public ImportReport importCourses(final Reader input) throws IOException, SQLException {
+        loadKeys();
+        Set<String> pending = new HashSet<>();
+        return importRows("courses", input, INSERT_COURSE_SQL, 1, csv -> {
+            if (csv.isEmpty(0)) {
+                throw new RejectedRow("missing name");
+            }
+            String name = csv.stringField(0);
+            if (courseIds.containsKey(name) || !pending.add(name)) {
+                throw new RejectedRow("duplicate course " + name);
+            }
+            return new Object[] {name};
+        }, (rows, ids) -> {
+            for (int i = 0; i < ids.length; i++) {
+                String name = (String) rows.get(i)[0];
+                courseIds.put(name, ids[i]);
+                pending.remove(name);
+            }
+        });
+    }
+
+    public ImportReport importEnrollments(final Reader input) throws IOException, SQLException {
+        loadKeys();
+        Set<Long> seen = new HashSet<>();
+        return importRows("enrollments", input, INSERT_ENROLLMENT_SQL, 2, csv -> {
+            int studentId = studentId(csv);
+            int courseId = courseId(csv);
+            if (!seen.add(((long) studentId << 32) | courseId)) {
+                throw new RejectedRow("duplicate enrollment");
+            }
+            return new Object[] {studentId, courseId};
+        }, (rows, ids) -> { });
+    }
+
+    public ImportReport importGrades(final Reader input) throws IOException, SQLException {
+        loadKeys();
+        return importRows("grades", input, INSERT_GRADE_SQL, 3, csv -> {
+            int studentId = studentId(csv);
+            int courseId = courseId(csv);
+            return new Object[] {csv.floatField(2), studentId, courseId};
+        }, (rows, ids) -> { });
+    }
+
+    private int studentId(final CsvReader csv) throws RejectedRow {
+        int indexNumber = csv.intField(0);
+        Integer id = studentIds.get(indexNumber);
+        if (id == null) {
+            throw new RejectedRow("unknown student " + indexNumber);
+        }
+        return id;
+    }
+
+    private int courseId(final CsvReader csv) throws RejectedRow {
+        String name = csv.stringField(1);
+        Integer id = courseIds.get(name);
+        if (id == null) {
+            throw new RejectedRow("unknown course " + name);
+        }
+        return id;
+    }
+
+    private ImportReport importRows(final String name, final Reader input, final String insertSql,
+                                    final int fieldCount, final RowParser parser, final BatchListener listener)
+            throws IOException, SQLException {
+        ImportReport report = new ImportReport(name);
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        try (CsvReader csv = new CsvReader(input)) {
+            csv.next();
+            while (csv.next()) {
+                report.read();
+                try {
+                    if (csv.fieldCount() < fieldCount) {
+                        throw new RejectedRow("expected " + fieldCount + " fields, got " + csv.fieldCount());
+                    }
+                    batch.add(parser.parse(csv));
+                } catch (RejectedRow | NumberFormatException e) {
+                    report.reject(csv.lineNumber(), e.getMessage());
+                    continue;
+                }
+                if (batch.size() == batchSize) {
+                    flush(insertSql, batch, listener, report);
+                }
+            }
+            flush(insertSql, batch, listener, report);
+        }
+        report.finish();
+        logger.info(report.toString());
+        return report;
+    }
+
+    private void flush(final String insertSql, final List<Object[]> batch, final BatchListener listener,
+                       final ImportReport report) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        BatchResult result = QueryExecutor.executeBatchForResult(insertSql, batch, batchSize);
+        listener.flushed(batch, result.ids());
+        int changed = result.changedRows();
+        report.imported(changed);
+        report.skipped(batch.size() - changed);
+        batch.clear();
+    }
+
+    private void loadKeys() throws SQLException {
+        if (keysLoaded) {
+            return;
+        }
+        try (Stream<int[]> students = QueryExecutor.stream("SELECT id, index_number FROM student",
+                rs -> new int[] {rs.getInt(1), rs.getInt(2)})) {
+            students.forEach(row -> studentIds.put(row[1], row[0]));
+        }
+        try (Stream<Object[]> courses = QueryExecutor.stream("SELECT id, name FROM course",
+                rs -> new Object[] {rs.getInt(1), rs.getString(2)})) {
+            courses.forEach(row -> courseIds.put((String) row[1], (Integer) row[0]));
+        }
+        keysLoaded = true;
+    }
+
+    @FunctionalInterface
+    private interface RowParser {
+        Object[] parse(CsvReader csv) throws RejectedRow;
+    }
+
+    @FunctionalInterface
+    private interface BatchListener {
+        void flushed(List<Object[]> rows, int[] ids);
+    }
+
+    private static final class RejectedRow extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private RejectedRow(final String reason) {
+            super(reason, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package pl.edu.agh.iisg.to.importer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Record-at-a-time CSV reader. Records are decoded into one reusable char buffer and numeric fields are parsed
+ * straight from it, so only fields read through {@link #stringField(int)} allocate. Supports RFC 4180 quoting
+ * (including escaped quotes and line breaks inside quotes), CRLF line endings and skips blank lines.
+ */
+public final class CsvReader implements Closeable {
+
+    private static final int EOF = -1;
+
+    private final Reader reader;
+
+    private final char delimiter;
+
+    private final char[] buffer = new char[64 * 1024];
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    private char[] record = new char[256];
+
+    private int recordLength = 0;
+
+    private int[] starts = new int[8];
+
+    private int[] ends = new int[8];
+
+    private int fieldCount = 0;
+
+    private long lineNumber = 0;
+
+    public CsvReader(final Reader reader) {
+        this(reader, ',');
+    }
+
+    public CsvReader(final Reader reader, final char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+    }
+
+    public boolean next() throws IOException {
+        recordLength = 0;
+        fieldCount = 0;
+        int c = read();
+        while (c == '\n' || c == '\r') {
+            if (c == '\n') {
+                lineNumber++;
+            }
+            c = read();
+        }
+        if (c == EOF) {
+            return false;
+        }
+        lineNumber++;
+        int fieldStart = 0;
+        boolean inQuotes = false;
+        while (true) {
+            if (c == EOF) {
+                endField(fieldStart);
+                return true;
+            }
+            char ch = (char) c;
+            if (inQuotes) {
+                if (ch == '"') {
+                    int following = read();
+                    if (following != '"') {
+                        inQuotes = false;
+                        c = following;
+                        continue;
+                    }
+                } else if (ch == '\n') {
+                    lineNumber++;
+                }
+                append(ch);
+            } else if (ch == '"' && recordLength == fieldStart) {
+                inQuotes = true;
+            } else if (ch == delimiter) {
+                endField(fieldStart);
+                fieldStart = recordLength;
+            } else if (ch == '\n') {
+                endField(fieldStart);
+                return true;
+            } else if (ch != '\r') {
+                append(ch);
+            }
+            c = read();
+        }
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public long lineNumber() {
+        return lineNumber;
+    }
+
+    public boolean isEmpty(final int field) {
+        checkField(field);
+        return ends[field] == starts[field];
+    }
+
+    public String stringField(final int field) {
+        checkField(field);
+        return new String(record, starts[field], ends[field] - starts[field]);
+    }
+
+    public int intField(final int field) {
+        checkField(field);
+        int i = skipSpaces(starts[field], ends[field]);
+        int end = trimSpaces(i, ends[field]);
+        boolean negative = i < end && record[i] == '-';
+        if (i < end && (record[i] == '-' || record[i] == '+')) {
+            i++;
+        }
+        if (i == end) {
+            throw invalidNumber(field);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = record[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalidNumber(field);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw invalidNumber(field);
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw invalidNumber(field);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses plain decimals such as {@code 4.5} without allocating; anything else (exponents, NaN) falls back
+     * to {@link Float#parseFloat(String)}.
+     */
+    public float floatField(final int field) {
+        checkField(field);
+        int i = skipSpaces(starts[field], ends[field]);
+        int end = trimSpaces(i, ends[field]);
+        boolean negative = i < end && record[i] == '-';
+        if (i < end && (record[i] == '-' || record[i] == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            char ch = record[i];
+            if (ch == '.' && !fraction) {
+                fraction = true;
+            } else if (ch >= '0' && ch <= '9' && digits < 18) {
+                mantissa = mantissa * 10 + (ch - '0');
+                digits++;
+                if (fraction) {
+                    scale++;
+                }
+            } else {
+                return parseFloatFallback(field);
+            }
+        }
+        if (digits == 0) {
+            throw invalidNumber(field);
+        }
+        double value = mantissa / Math.pow(10, scale);
+        return (float) (negative ? -value : value);
+    }
+
+    private float parseFloatFallback(final int field) {
+        try {
+            return Float.parseFloat(stringField(field).trim());
+        } catch (NumberFormatException e) {
+            throw invalidNumber(field);
+        }
+    }
+
+    private NumberFormatException invalidNumber(final int field) {
+        return new NumberFormatException("Not a number in field " + (field + 1) + ": \"" + stringField(field) + "\"");
+    }
+
+    private int skipSpaces(int from, final int to) {
+        while (from < to && record[from] == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimSpaces(final int from, int to) {
+        while (to > from && record[to - 1] == ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    private void checkField(final int field) {
+        if (field < 0 || field >= fieldCount) {
+            throw new IndexOutOfBoundsException("Line " + lineNumber + " has " + fieldCount + " fields, field "
+                    + (field + 1) + " requested");
+        }
+    }
+
+    private void append(final char ch) {
+        if (recordLength == record.length) {
+            record = Arrays.copyOf(record, record.length * 2);
+        }
+        record[recordLength++] = ch;
+    }
+
+    private void endField(final int fieldStart) {
+        if (fieldCount == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+            ends = Arrays.copyOf(ends, ends.length * 2);
+        }
+        starts[fieldCount] = fieldStart;
+        ends[fieldCount] = recordLength;
+        fieldCount++;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return EOF;
+            }
+        }
+        return buffer[position++];
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
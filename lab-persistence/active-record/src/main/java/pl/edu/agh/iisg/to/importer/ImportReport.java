@@ -0,0 +1,103 @@
+package pl.edu.agh.iisg.to.importer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class ImportReport {
+
+    private static final int MAX_REJECTION_SAMPLES = 20;
+
+    private final String name;
+
+    private final long startedNanos = System.nanoTime();
+
+    private long elapsedNanos;
+
+    private long rowsRead;
+
+    private long rowsImported;
+
+    private long rowsRejected;
+
+    private long rowsSkipped;
+
+    private final List<String> rejections = new ArrayList<>();
+
+    ImportReport(final String name) {
+        this.name = name;
+    }
+
+    void read() {
+        rowsRead++;
+    }
+
+    void imported(final int rows) {
+        rowsImported += rows;
+    }
+
+    // valid rows the database did not write, e.g. enrollments that already exist
+    void skipped(final int rows) {
+        rowsSkipped += rows;
+    }
+
+    void reject(final long lineNumber, final String reason) {
+        rowsRejected++;
+        if (rejections.size() < MAX_REJECTION_SAMPLES) {
+            rejections.add("line " + lineNumber + ": " + reason);
+        }
+    }
+
+    ImportReport finish() {
+        elapsedNanos = System.nanoTime() - startedNanos;
+        return this;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public long rowsRead() {
+        return rowsRead;
+    }
+
+    public long rowsImported() {
+        return rowsImported;
+    }
+
+    public long rowsRejected() {
+        return rowsRejected;
+    }
+
+    /**
+     * Rows that passed validation but were not written because the database already had them.
+     */
+    public long rowsSkipped() {
+        return rowsSkipped;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double rowsPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : rowsImported * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * The first rejected rows with their reasons; {@link #rowsRejected()} has the full count.
+     */
+    public List<String> rejections() {
+        return Collections.unmodifiableList(rejections);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("%s: %d read, %d imported, %d skipped, %d rejected in %.2f s (%.0f rows/s)",
+                name, rowsRead, rowsImported, rowsSkipped, rowsRejected, elapsedNanos / 1_000_000_000.0, rowsPerSecond()));
+        for (String rejection : rejections) {
+            sb.append(System.lineSeparator()).append("  rejected ").append(rejection);
+        }
+        return sb.toString();
+    }
+}
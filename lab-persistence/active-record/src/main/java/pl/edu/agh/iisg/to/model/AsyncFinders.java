@@ -0,0 +1,44 @@
+package pl.edu.agh.iisg.to.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import pl.edu.agh.iisg.to.executor.AsyncQueryExecutor;
+
+/**
+ * {@link CompletableFuture} variants of the model finders, run on {@link AsyncQueryExecutor}. Failures are handled
+ * the same way as in the blocking finders, i.e. they complete with an empty result.
+ */
+public final class AsyncFinders {
+
+    private AsyncFinders() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static CompletableFuture<Optional<Student>> studentById(final int id) {
+        return AsyncQueryExecutor.submit(() -> Student.findById(id));
+    }
+
+    public static CompletableFuture<Optional<Student>> studentByIndexNumber(final int indexNumber) {
+        return AsyncQueryExecutor.submit(() -> Student.findByIndexNumber(indexNumber));
+    }
+
+    public static CompletableFuture<Optional<Course>> courseById(final int id) {
+        return AsyncQueryExecutor.submit(() -> Course.findById(id));
+    }
+
+    public static CompletableFuture<List<Student>> studentList(final Course course) {
+        return AsyncQueryExecutor.submit(course::studentList);
+    }
+
+    public static CompletableFuture<List<Student>> studentList(final Course course, final int afterStudentId,
+                                                               final int limit) {
+        return AsyncQueryExecutor.submit(() -> course.studentList(afterStudentId, limit));
+    }
+
+    public static CompletableFuture<Map<Course, Float>> report(final Student student) {
+        return AsyncQueryExecutor.submit(student::createReport);
+    }
+}
@@ -1,31 +1,80 @@
 package pl.edu.agh.iisg.to.model;
 
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
-import java.util.logging.Logger;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
+import pl.edu.agh.iisg.to.cache.IdentityMap;
+import pl.edu.agh.iisg.to.cache.IdentityMaps;
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
 import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.executor.RowMapper;
+import pl.edu.agh.iisg.to.executor.TableChangeListener;
+import pl.edu.agh.iisg.to.query.KeysetPages;
+import pl.edu.agh.iisg.to.query.QueryHelper;
+import pl.edu.agh.iisg.to.schema.SchemaManager;
 
 public class Course {
 
     public static final String TABLE_NAME = "course";
-    
-    private static final Logger logger = Logger.getGlobal();
+
+    static final String ENROLLMENT_TABLE = "student_course";
+
+    private static final IdentityMaps.Key<Course> IDENTITY = IdentityMaps.key(TABLE_NAME, Course::id);
+
+    static final RowMapper<Course> ROW_MAPPER = rs -> identities().put(new Course(rs.getInt("id"), rs.getString("name")));
+
+    private static final String FIND_STUDENT_LIST_SQL =
+            "SELECT s.* FROM student_course sc " +
+            "INNER JOIN student s on s.id = sc.student_id " +
+            "WHERE sc.course_id = (?)";
+
+    // seeks idx_student_course_course (course_id, student_id), which already yields rows in student id order
+    private static final String FIND_STUDENT_PAGE_SQL =
+            "SELECT s.* FROM student_course sc " +
+            "INNER JOIN student s on s.id = sc.student_id " +
+            "WHERE sc.course_id = (?) AND sc.student_id > (?) " +
+            "ORDER BY sc.student_id " +
+            "LIMIT (?)";
+
+    // one row per distinct grade value, all read through the primary keys of the two summary tables
+    private static final String STATS_SQL =
+            "SELECT s.grade_count AS total, s.grade_sum, s.min_grade, s.max_grade, h.grade, h.grade_count " +
+            "FROM " + SchemaManager.COURSE_STATS_TABLE + " s " +
+            "INNER JOIN " + SchemaManager.COURSE_HISTOGRAM_TABLE + " h ON h.course_id = s.course_id " +
+            "WHERE s.course_id = (?)";
+
+    private static final String LOAD_STUDENTS_SQL =
+            "SELECT sc.course_id, s.* FROM student_course sc " +
+            "INNER JOIN student s on s.id = sc.student_id " +
+            "WHERE sc.course_id IN (%s)";
+
+    static {
+        QueryExecutor.addTableChangeListener((table, operation) -> {
+            if (TABLE_NAME.equals(table) && operation != TableChangeListener.Operation.INSERT) {
+                IdentityMaps.invalidate(IDENTITY);
+            }
+        });
+    }
 
     private final int id;
 
     private final String name;
-    
-    private List<Student> enrolledStudents;
-    
-    private boolean isStudentsListDownloaded = false;
+
+    private final LazyRelation<Student> students;
 
     Course(final int id, final String name) {
         this.id = id;
         this.name = name;
+        this.students = new LazyRelation<>(id, ENROLLMENT_TABLE, Course::loadStudents);
     }
 
     public static Optional<Course> create(final String name) {
@@ -36,28 +85,72 @@ public class Course {
 
 		try {
 			int id = QueryExecutor.createAndObtainId(insertSql, args);
-	        return Course.findById(id);
+	        return Optional.of(identities().put(new Course(id, name)));
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
         return Optional.empty();
     }
 
+    public static List<Course> createAll(final Collection<String> names) {
+        return createAll(names, QueryExecutor.DEFAULT_BATCH_SIZE);
+    }
+
+    public static List<Course> createAll(final Collection<String> names, final int chunkSize) {
+        String insertSql = "INSERT INTO course (name) VALUES (?);";
+
+        List<Object[]> rows = new ArrayList<>(names.size());
+        for (String name : names) {
+            rows.add(new Object[] {
+                    name
+            });
+        }
+
+        try {
+            int[] ids = QueryExecutor.executeBatch(insertSql, rows, chunkSize);
+            IdentityMap<Course> identities = identities();
+            List<Course> courses = new ArrayList<>(ids.length);
+            int i = 0;
+            for (String name : names) {
+                courses.add(identities.put(new Course(ids[i++], name)));
+            }
+            return courses;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyList();
+    }
+
     public static Optional<Course> findById(final int id) {
+        Optional<Course> cached = identities().get(id);
+        if (cached.isPresent()) {
+            return cached;
+        }
     	String findByIdSql = "SELECT * FROM course WHERE id = ?";
-        Object[] args = {
-                id
-        };
 
     	try {
-			ResultSet rs = QueryExecutor.read(findByIdSql, args);
-	        return Optional.of(new Course(rs.getInt("id"), rs.getString("name")));
+			return QueryExecutor.queryForObject(findByIdSql, ROW_MAPPER, id);
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 		return Optional.empty();
     }
 
+    /**
+     * Courses with the given ids, keyed by id; ids without a course are left out.
+     */
+    public static Map<Integer, Course> findByIds(final Collection<Integer> ids) {
+        IdentityMap<Course> identities = identities();
+        Map<Integer, Course> found = MultiGet.find(TABLE_NAME, Columns.ID, ids, ROW_MAPPER, Course::id,
+                identities::get);
+        batched(found.values());
+        return found;
+    }
+
+    static IdentityMap<Course> identities() {
+        return IdentityMaps.current(IDENTITY);
+    }
+
     public boolean enrollStudent(final Student student) {
         String enrollStudentSql = "INSERT INTO student_course (student_id, course_id) VALUES (?, ?);";
         Object[] args = {
@@ -65,9 +158,11 @@ public class Course {
             this.id
         };
 
-        // TODO: done
         try {
-            QueryExecutor.createAndObtainId(enrollStudentSql, args);
+            ConnectionProvider.onShard(ConnectionProvider.shardOfId(student.id()),
+                    () -> QueryExecutor.createAndObtainId(enrollStudentSql, args));
+            students.added(student);
+            student.enrolled(this);
             return true;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -77,37 +172,124 @@ public class Course {
     }
 
     public List<Student> studentList() {
-    	String findStudentListSql =
-                "SELECT * FROM student_course sc " +
-                "INNER JOIN student s on s.id = sc.student_id " +
-                "WHERE course_id = (?)";
         Object[] args = {
             this.id
         };
 
-    	List<Student> resultList = new LinkedList<>();
-    	// TODO
         try {
-            ResultSet rs = QueryExecutor.read(findStudentListSql, args);
-            while (rs.next()) {
-                Student s = new Student(
-                        rs.getInt("id"),
-                        rs.getString("first_name"),
-                        rs.getString("last_name"),
-                        rs.getInt("index_number")
-                );
-                resultList.add(s);
+            return Student.batched(QueryExecutor.queryAllShards(FIND_STUDENT_LIST_SQL, Student.ROW_MAPPER, args));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+
+    	return new ArrayList<>();
+    }
+
+    /**
+     * One page of the roster: at most {@code limit} students with an id greater than {@code afterStudentId},
+     * ordered by id. Pass the id of the last student of a page to get the next one.
+     */
+    public List<Student> studentList(final int afterStudentId, final int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        Object[] args = {
+            this.id,
+            afterStudentId,
+            limit
+        };
+
+        try {
+            List<Student> page = QueryExecutor.queryAllShards(FIND_STUDENT_PAGE_SQL, Student.ROW_MAPPER, args);
+            if (ConnectionProvider.isSharded()) {
+                // every shard returned its own first page; the merged page is the lowest ids among them
+                page.sort(Comparator.comparingInt(Student::id));
+                page = new ArrayList<>(page.subList(0, Math.min(limit, page.size())));
             }
+            return Student.batched(page);
         } catch (SQLException e) {
             e.printStackTrace();
         }
 
-    	return resultList;
+        return new ArrayList<>();
+    }
+
+    /**
+     * The whole roster in pages of {@code pageSize} students, each loaded on demand by {@link #studentList(int, int)}.
+     */
+    public Iterable<List<Student>> studentPages(final int pageSize) {
+        return new KeysetPages<>(this::studentList, Student::id, 0, pageSize);
+    }
+
+    /**
+     * Streams the roster without materializing it; the stream holds a database cursor and must be closed.
+     */
+    public Stream<Student> streamStudents() throws SQLException {
+        if (!ConnectionProvider.isSharded()) {
+            return QueryExecutor.stream(FIND_STUDENT_LIST_SQL, Student.ROW_MAPPER, this.id);
+        }
+        return Shards.stream(FIND_STUDENT_LIST_SQL, Student.ROW_MAPPER, this.id);
     }
     
+    /**
+     * Roster loaded on first access; the same list is returned until enrolments change or
+     * {@link #invalidateCachedStudentsList()}. Courses loaded together, e.g. by {@link #findByIds(Collection)},
+     * load their rosters with one query.
+     */
+    public List<Student> students() {
+        try {
+            return students.get();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Alias of {@link #students()}.
+     */
     public List<Student> cachedStudentsList() {
-    	//TODO implement
-		return enrolledStudents;
+        return students();
+    }
+
+    public void invalidateCachedStudentsList() {
+        students.reset();
+    }
+
+    private static Map<Integer, List<Student>> loadStudents(final Collection<Integer> courseIds) throws SQLException {
+        Map<Integer, List<Student>> students = LazyRelation.query(courseIds,
+                count -> String.format(LOAD_STUDENTS_SQL, QueryHelper.placeholders(count)), Student.ROW_MAPPER, false);
+        List<Student> all = new ArrayList<>();
+        students.values().forEach(all::addAll);
+        Student.batched(all);
+        return students;
+    }
+
+    static <C extends Collection<Course>> C batched(final C courses) {
+        LazyRelation.batch(courses, course -> course.students);
+        return courses;
+    }
+
+    /**
+     * Count, sum, min, max and histogram of the course's grades. They are kept up to date by triggers on every grade
+     * write, so the cost does not depend on the number of grades.
+     */
+    public CourseStats stats() {
+        try {
+            return CourseStats.merge(QueryExecutor.onAllShards(() -> {
+                NavigableMap<Float, Long> histogram = new TreeMap<>();
+                // the totals repeat on every row; each row adds its grade value to the shared histogram
+                List<CourseStats> rows = QueryExecutor.query(STATS_SQL, rs -> {
+                    histogram.put(rs.getFloat("grade"), rs.getLong("grade_count"));
+                    return new CourseStats(rs.getLong("total"), rs.getDouble("grade_sum"),
+                            rs.getFloat("min_grade"), rs.getFloat("max_grade"), histogram);
+                }, this.id);
+                return rows.isEmpty() ? CourseStats.empty() : rows.get(0);
+            }));
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return CourseStats.empty();
     }
 
     public int id() {
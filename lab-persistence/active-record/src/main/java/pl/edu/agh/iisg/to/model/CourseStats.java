@@ -0,0 +1,93 @@
+package pl.edu.agh.iisg.to.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Grade statistics of one course as maintained by the triggers on grade; see {@link Course#stats()}.
+ */
+public final class CourseStats {
+
+    private static final CourseStats EMPTY = new CourseStats(0, 0.0, 0.0f, 0.0f, new TreeMap<>());
+
+    private final long count;
+
+    private final double sum;
+
+    private final float min;
+
+    private final float max;
+
+    private final NavigableMap<Float, Long> histogram;
+
+    CourseStats(final long count, final double sum, final float min, final float max,
+                final NavigableMap<Float, Long> histogram) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.histogram = Collections.unmodifiableNavigableMap(histogram);
+    }
+
+    static CourseStats empty() {
+        return EMPTY;
+    }
+
+    // statistics of the same course gathered on several shards
+    static CourseStats merge(final List<CourseStats> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        long count = 0;
+        double sum = 0.0;
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        NavigableMap<Float, Long> histogram = new TreeMap<>();
+        for (CourseStats part : parts) {
+            if (part.count == 0) {
+                continue;
+            }
+            count += part.count;
+            sum += part.sum;
+            min = Math.min(min, part.min);
+            max = Math.max(max, part.max);
+            part.histogram.forEach((grade, grades) -> histogram.merge(grade, grades, Long::sum));
+        }
+        return count == 0 ? EMPTY : new CourseStats(count, sum, min, max, histogram);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double sum() {
+        return sum;
+    }
+
+    public double average() {
+        return count == 0 ? 0.0 : sum / count;
+    }
+
+    public float min() {
+        return min;
+    }
+
+    public float max() {
+        return max;
+    }
+
+    /**
+     * Number of grades per grade value, in ascending grade order.
+     */
+    public NavigableMap<Float, Long> histogram() {
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CourseStats{count=%d, average=%.2f, min=%.1f, max=%.1f, histogram=%s}",
+                count, average(), min, max, histogram);
+    }
+}
@@ -1,9 +1,34 @@
 package pl.edu.agh.iisg.to.model;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.executor.RowMapper;
+import pl.edu.agh.iisg.to.executor.WriteBehindQueue;
+import pl.edu.agh.iisg.to.executor.WriteBehindStatistics;
+
 public class Grade {
 
     public static final String TABLE_NAME = "grade";
 
+    private static final String GRADE_STUDENT_SQL = "INSERT INTO grade (grade, student_id, course_id) VALUES (?, ?, ?);";
+
+    static final RowMapper<Grade> ROW_MAPPER = rs -> new Grade(rs.getInt("id"), rs.getFloat("grade"));
+
+    private static volatile WriteBehindQueue writeBehind;
+
     private final int id;
 
     private final float grade;
@@ -14,9 +39,172 @@ public class Grade {
     }
 
     public static boolean gradeStudent(final Student student, final Course course, final float grade) {
-    	String gradeStudentSql = "";
-    	
-    	return true;
+        Object[] args = {
+                grade,
+                student.id(),
+                course.id()
+        };
+
+        WriteBehindQueue queue = writeBehindQueue();
+        if (queue != null) {
+            try {
+                int id = queue.submit(args).join();
+                student.graded(new Grade(id, grade));
+                return true;
+            } catch (CompletionException e) {
+                e.getCause().printStackTrace();
+                return false;
+            }
+        }
+
+        try {
+            int id = ConnectionProvider.onShard(ConnectionProvider.shardOfId(student.id()),
+                    () -> QueryExecutor.createAndObtainId(GRADE_STUDENT_SQL, args));
+            student.graded(new Grade(id, grade));
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    	return false;
+    }
+
+    /**
+     * Like {@link #gradeStudent(Student, Course, float)}, but does not wait for the insert. With write-behind enabled
+     * the grade is queued and the future completes once the flush that wrote it has committed; otherwise the grade is
+     * inserted right away.
+     */
+    public static CompletableFuture<Grade> gradeStudentAsync(final Student student, final Course course,
+                                                             final float grade) {
+        Object[] args = {
+                grade,
+                student.id(),
+                course.id()
+        };
+
+        WriteBehindQueue queue = writeBehindQueue();
+        if (queue != null) {
+            return queue.submit(args).thenApply(id -> {
+                Grade graded = new Grade(id, grade);
+                student.graded(graded);
+                return graded;
+            });
+        }
+        try {
+            int id = ConnectionProvider.onShard(ConnectionProvider.shardOfId(student.id()),
+                    () -> QueryExecutor.createAndObtainId(GRADE_STUDENT_SQL, args));
+            Grade graded = new Grade(id, grade);
+            student.graded(graded);
+            return CompletableFuture.completedFuture(graded);
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Queues grades in memory and writes them in one transaction every {@code flushIntervalMillis} or
+     * {@code maxBatchRows} grades, whichever comes first, instead of committing each grade on its own.
+     */
+    public static void enableWriteBehind(final long flushIntervalMillis, final int maxBatchRows) {
+        enableWriteBehind(flushIntervalMillis, maxBatchRows, WriteBehindQueue.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * As {@link #enableWriteBehind(long, int)}, with at most {@code queueCapacity} grades waiting; grading blocks
+     * while the queue is full and fails once it stays full for the pool checkout timeout.
+     */
+    public static synchronized void enableWriteBehind(final long flushIntervalMillis, final int maxBatchRows,
+                                                      final int queueCapacity) {
+        disableWriteBehind();
+        writeBehind = new WriteBehindQueue(GRADE_STUDENT_SQL, flushIntervalMillis, maxBatchRows, queueCapacity);
+    }
+
+    /**
+     * Writes the grades still queued and goes back to inserting every grade immediately.
+     */
+    public static synchronized void disableWriteBehind() {
+        WriteBehindQueue queue = writeBehind;
+        if (queue != null) {
+            writeBehind = null;
+            queue.close();
+        }
+    }
+
+    // inside a transaction the grade must be part of it; the flusher could not get the writer this thread holds anyway.
+    // The flusher writes to a single database, so a sharded database writes every grade directly to its shard.
+    private static WriteBehindQueue writeBehindQueue() {
+        return QueryExecutor.isInTransaction() || ConnectionProvider.isSharded() ? null : writeBehind;
+    }
+
+    public static Optional<WriteBehindStatistics> writeBehindStatistics() {
+        WriteBehindQueue queue = writeBehind;
+        return queue == null ? Optional.empty() : Optional.of(queue.statistics());
+    }
+
+    public static List<Grade> gradeAll(final Collection<Entry> entries) {
+        return gradeAll(entries, QueryExecutor.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * On a sharded database the grades are inserted shard by shard; shards written before a failure stay written.
+     */
+    public static List<Grade> gradeAll(final Collection<Entry> entries, final int chunkSize) {
+        if (!ConnectionProvider.isSharded()) {
+            return gradeAllOnShard(entries, chunkSize);
+        }
+        // each shard's grades come back in the order its entries were grouped, which is the order of entries
+        Map<Integer, Iterator<Grade>> byShard = new HashMap<>();
+        for (Map.Entry<Integer, List<Entry>> group : Shards.group(entries, Entry::shard).entrySet()) {
+            List<Grade> graded =
+                    ConnectionProvider.onShard(group.getKey(), () -> gradeAllOnShard(group.getValue(), chunkSize));
+            if (graded.isEmpty()) {
+                return Collections.emptyList();
+            }
+            byShard.put(group.getKey(), graded.iterator());
+        }
+        List<Grade> grades = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            grades.add(byShard.get(entry.shard()).next());
+        }
+        return grades;
+    }
+
+    private static List<Grade> gradeAllOnShard(final Collection<Entry> entries, final int chunkSize) {
+        List<Object[]> rows = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            rows.add(new Object[] {
+                    entry.grade,
+                    entry.studentId,
+                    entry.courseId
+            });
+        }
+
+        try {
+            int[] ids = QueryExecutor.executeBatch(GRADE_STUDENT_SQL, rows, chunkSize);
+            List<Grade> grades = new ArrayList<>(ids.length);
+            int i = 0;
+            for (Entry entry : entries) {
+                grades.add(new Grade(ids[i++], entry.grade));
+            }
+            return grades;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Streams all grades given in the course, e.g. for exports; the stream holds a database cursor and must be closed.
+     */
+    public static Stream<Grade> streamForCourse(final Course course) throws SQLException {
+        String sql = "SELECT id, grade FROM grade WHERE course_id = (?)";
+        if (!ConnectionProvider.isSharded()) {
+            return QueryExecutor.stream(sql, ROW_MAPPER, course.id());
+        }
+        return Shards.stream(sql, ROW_MAPPER, course.id());
+    }
+
+    public static Entry entry(final Student student, final Course course, final float grade) {
+        return new Entry(student.id(), course.id(), grade);
     }
 
     public int id() {
@@ -39,4 +227,23 @@ public class Grade {
 
     }
 
+    public static final class Entry {
+
+        private final int studentId;
+
+        private final int courseId;
+
+        private final float grade;
+
+        private Entry(final int studentId, final int courseId, final float grade) {
+            this.studentId = studentId;
+            this.courseId = courseId;
+            this.grade = grade;
+        }
+
+        private int shard() {
+            return ConnectionProvider.shardOfId(studentId);
+        }
+    }
+
 }
@@ -0,0 +1,220 @@
+package pl.edu.agh.iisg.to.model;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.executor.RowMapper;
+import pl.edu.agh.iisg.to.query.QueryHelper;
+
+/**
+ * A to-many relation of one entity, loaded on first access and then served from memory. Entities loaded together,
+ * e.g. the students of one roster page, are put in one batch with {@link #batch(Collection, Function)}: the first
+ * access to any of them loads the relation of the whole batch with one query per chunk of
+ * {@link QueryHelper#IN_CLAUSE_CHUNK_SIZE} entities.
+ * <p>
+ * Any write to the table the relation is read from, reported by {@link QueryExecutor}'s table change listeners,
+ * makes the loaded relations of that table stale; they load again on their next access.
+ */
+final class LazyRelation<T> {
+
+    private static final Map<String, AtomicLong> VERSIONS = new ConcurrentHashMap<>();
+
+    static {
+        QueryExecutor.addTableChangeListener((table, operation) -> {
+            AtomicLong version = VERSIONS.get(table);
+            if (version != null) {
+                version.incrementAndGet();
+            }
+        });
+    }
+
+    private final int parentId;
+
+    private final AtomicLong version;
+
+    private final Loader<T> loader;
+
+    private Batch<T> batch;
+
+    private volatile Snapshot<T> loaded;
+
+    LazyRelation(final int parentId, final String table, final Loader<T> loader) {
+        this.parentId = parentId;
+        this.version = VERSIONS.computeIfAbsent(table, key -> new AtomicLong());
+        this.loader = loader;
+    }
+
+    static <P, T> void batch(final Collection<P> parents, final Function<P, LazyRelation<T>> relation) {
+        if (parents.size() < 2) {
+            return;
+        }
+        Batch<T> batch = new Batch<>();
+        synchronized (batch) {
+            for (P parent : parents) {
+                LazyRelation<T> member = relation.apply(parent);
+                synchronized (member) {
+                    if (member.fresh() == null) {
+                        member.batch = batch;
+                        batch.members.add(member);
+                    }
+                }
+            }
+        }
+    }
+
+    List<T> get() throws SQLException {
+        List<T> current = fresh();
+        if (current != null) {
+            return current;
+        }
+        Batch<T> group;
+        synchronized (this) {
+            if (batch == null) {
+                batch = new Batch<>();
+                batch.members.add(this);
+            }
+            group = batch;
+        }
+        synchronized (group) {
+            List<LazyRelation<T>> pending = new ArrayList<>();
+            for (LazyRelation<T> member : group.members) {
+                if (member.fresh() == null) {
+                    pending.add(member);
+                }
+            }
+            if (fresh() == null && !pending.contains(this)) {
+                pending.add(this);
+            }
+            if (!pending.isEmpty()) {
+                Set<Integer> parentIds = new LinkedHashSet<>();
+                for (LazyRelation<T> member : pending) {
+                    parentIds.add(member.parentId);
+                }
+                // read before the query, so that a write committed while it runs leaves the result stale
+                long loadedVersion = version.get();
+                Map<Integer, List<T>> rows = loader.load(parentIds);
+                for (LazyRelation<T> member : pending) {
+                    member.loaded(rows.getOrDefault(member.parentId, Collections.emptyList()), loadedVersion);
+                }
+            }
+            group.members.clear();
+        }
+        return loaded.items;
+    }
+
+    boolean isLoaded() {
+        return fresh() != null;
+    }
+
+    // the loaded items, or null when nothing is loaded or the table was written since
+    private List<T> fresh() {
+        Snapshot<T> current = loaded;
+        return current != null && current.version == version.get() ? current.items : null;
+    }
+
+    /**
+     * Keeps an already loaded relation in step with a write made through the model; an unloaded one is left alone,
+     * it will see the row when it loads.
+     */
+    synchronized void added(final T item) {
+        List<T> current = fresh();
+        if (current != null) {
+            List<T> copy = new ArrayList<>(current);
+            copy.add(item);
+            loaded = new Snapshot<>(Collections.unmodifiableList(copy), loaded.version);
+        }
+    }
+
+    synchronized void reset() {
+        loaded = null;
+        batch = null;
+    }
+
+    private synchronized void loaded(final List<T> items, final long loadedVersion) {
+        if (fresh() == null) {
+            loaded = new Snapshot<>(Collections.unmodifiableList(new ArrayList<>(items)), loadedVersion);
+            batch = null;
+        }
+    }
+
+    /**
+     * Runs the IN query built by {@code sql} for the given number of placeholders over all parent ids, chunk by chunk.
+     * The query selects the parent id as its first column; {@code mapper} maps the related row. When
+     * {@code parentsOwnShards} the parents are students and each one is read on its own shard, otherwise every chunk
+     * is read on all shards.
+     */
+    static <T> Map<Integer, List<T>> query(final Collection<Integer> parentIds, final IntFunction<String> sql,
+                                           final RowMapper<T> mapper, final boolean parentsOwnShards)
+            throws SQLException {
+        Map<Integer, List<T>> related = new HashMap<>();
+        RowMapper<Void> collector = rs -> {
+            related.computeIfAbsent(rs.getInt(1), parentId -> new ArrayList<>()).add(mapper.map(rs));
+            return null;
+        };
+        if (!parentsOwnShards) {
+            for (Object[] chunk : QueryHelper.inClauseChunks(parentIds, QueryHelper.IN_CLAUSE_CHUNK_SIZE)) {
+                // the shards may be read in parallel, so the rows are collected once all of them are back
+                for (RelatedRow<T> row : QueryExecutor.queryAllShards(sql.apply(chunk.length),
+                        rs -> new RelatedRow<>(rs.getInt(1), mapper.map(rs)), chunk)) {
+                    related.computeIfAbsent(row.parentId, parentId -> new ArrayList<>()).add(row.item);
+                }
+            }
+            return related;
+        }
+        for (Map.Entry<Integer, List<Integer>> group : Shards.group(parentIds, ConnectionProvider::shardOfId).entrySet()) {
+            for (Object[] chunk : QueryHelper.inClauseChunks(group.getValue(), QueryHelper.IN_CLAUSE_CHUNK_SIZE)) {
+                ConnectionProvider.onShard(group.getKey(),
+                        () -> QueryExecutor.query(sql.apply(chunk.length), collector, chunk));
+            }
+        }
+        return related;
+    }
+
+    @FunctionalInterface
+    interface Loader<T> {
+
+        Map<Integer, List<T>> load(Collection<Integer> parentIds) throws SQLException;
+    }
+
+    private static final class Batch<T> {
+
+        private final List<LazyRelation<T>> members = new ArrayList<>();
+    }
+
+    private static final class Snapshot<T> {
+
+        private final List<T> items;
+
+        private final long version;
+
+        private Snapshot(final List<T> items, final long version) {
+            this.items = items;
+            this.version = version;
+        }
+    }
+
+    private static final class RelatedRow<T> {
+
+        private final int parentId;
+
+        private final T item;
+
+        private RelatedRow(final int parentId, final T item) {
+            this.parentId = parentId;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package pl.edu.agh.iisg.to.model;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.executor.RowMapper;
+import pl.edu.agh.iisg.to.query.QueryHelper;
+
+/**
+ * Loads many rows by key: keys found in the identity map are served from it, the rest is read with one
+ * {@code IN (...)} query per chunk of {@link QueryHelper#IN_CLAUSE_CHUNK_SIZE} keys. When a query fails, the
+ * entities found up to that point, identity map hits included, are still returned.
+ */
+final class MultiGet {
+
+    private MultiGet() {
+        throw new UnsupportedOperationException();
+    }
+
+    static <T> Map<Integer, T> find(final String table, final String keyColumn, final Collection<Integer> keys,
+                                    final RowMapper<T> mapper, final ToIntFunction<T> key,
+                                    final IntFunction<Optional<T>> cached) {
+        Map<Integer, T> found = new HashMap<>();
+        Set<Integer> missing = new LinkedHashSet<>();
+        for (Integer k : keys) {
+            Optional<T> entity = cached.apply(k);
+            if (entity.isPresent()) {
+                found.put(k, entity.get());
+            } else {
+                missing.add(k);
+            }
+        }
+
+        try {
+            for (Object[] chunk : QueryHelper.inClauseChunks(missing, QueryHelper.IN_CLAUSE_CHUNK_SIZE)) {
+                String sql = "SELECT * FROM " + table + " WHERE " + keyColumn + " IN (" +
+                        QueryHelper.placeholders(chunk.length) + ")";
+                for (T entity : QueryExecutor.query(sql, mapper, chunk)) {
+                    found.put(key.applyAsInt(entity), entity);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Collections.unmodifiableMap(found);
+    }
+}
@@ -0,0 +1,48 @@
+package pl.edu.agh.iisg.to.model;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.executor.RowMapper;
+import pl.edu.agh.iisg.to.executor.UncheckedSQLException;
+
+/**
+ * Splits keyed work by the shard owning each key, see {@link ConnectionProvider#initSharded}. Without sharding
+ * everything lands in shard 0.
+ */
+final class Shards {
+
+    private Shards() {
+        throw new UnsupportedOperationException();
+    }
+
+    static <T> Map<Integer, List<T>> group(final Collection<T> items, final ToIntFunction<T> shardOf) {
+        Map<Integer, List<T>> groups = new TreeMap<>();
+        for (T item : items) {
+            groups.computeIfAbsent(shardOf.applyAsInt(item), shard -> new ArrayList<>()).add(item);
+        }
+        return groups;
+    }
+
+    /**
+     * Streams the rows of every shard, one shard after another; each shard's cursor is opened when the previous
+     * one is exhausted, and failures to open it surface as {@link UncheckedSQLException}.
+     */
+    static <T> Stream<T> stream(final String sql, final RowMapper<T> mapper, Object... args) {
+        return Stream.iterate(0, shard -> shard + 1).limit(ConnectionProvider.shardCount()).flatMap(shard -> {
+            try {
+                return ConnectionProvider.onShard(shard, () -> QueryExecutor.stream(sql, mapper, args));
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            }
+        });
+    }
+}
@@ -2,13 +2,59 @@ package pl.edu.agh.iisg.to.model;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 
+import pl.edu.agh.iisg.to.cache.IdentityMap;
+import pl.edu.agh.iisg.to.cache.IdentityMaps;
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
 import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.executor.RowMapper;
+import pl.edu.agh.iisg.to.executor.TableChangeListener;
+import pl.edu.agh.iisg.to.query.QueryHelper;
+import pl.edu.agh.iisg.to.query.SqlFunctions;
+import pl.edu.agh.iisg.to.schema.SchemaManager;
 
 public class Student {
+
+    public static final String TABLE_NAME = "student";
+
+    private static final IdentityMaps.Key<Student> IDENTITY =
+            IdentityMaps.key(TABLE_NAME, Student::id, Student::indexNumber);
+
+    private static final double SEARCH_TERM_SATURATION = 1.2;
+
+    private static final String LOAD_COURSES_SQL =
+            "SELECT sc.student_id, c.* FROM student_course sc " +
+            "INNER JOIN course c ON c.id = sc.course_id " +
+            "WHERE sc.student_id IN (%s)";
+
+    private static final String LOAD_GRADES_SQL = "SELECT student_id, id, grade FROM grade WHERE student_id IN (%s)";
+
+    static final RowMapper<Student> ROW_MAPPER = rs -> identities().put(
+            new Student(
+                    rs.getInt("id"),
+                    rs.getString("first_name"),
+                    rs.getString("last_name"),
+                    rs.getInt("index_number")
+            )
+    );
+
+    static {
+        QueryExecutor.addTableChangeListener((table, operation) -> {
+            if (TABLE_NAME.equals(table) && operation != TableChangeListener.Operation.INSERT) {
+                IdentityMaps.invalidate(IDENTITY);
+            }
+        });
+    }
+
     private final int id;
 
     private final String firstName;
@@ -17,11 +63,17 @@ public class Student {
 
     private final int indexNumber;
 
+    private final LazyRelation<Course> courses;
+
+    private final LazyRelation<Grade> grades;
+
     Student(final int id, final String firstName, final String lastName, final int indexNumber) {
         this.id = id;
         this.firstName = firstName;
         this.lastName = lastName;
         this.indexNumber = indexNumber;
+        this.courses = new LazyRelation<>(id, Course.ENROLLMENT_TABLE, Student::loadCourses);
+        this.grades = new LazyRelation<>(id, Grade.TABLE_NAME, Student::loadGrades);
     }
 
     public static Optional<Student> create(final String firstName, final String lastName, final int indexNumber) {
@@ -37,38 +89,179 @@ public class Student {
         };
 
         try {
-            int id = QueryExecutor.createAndObtainId(sql, args);
-            return Student.findById(id);
+            int id = ConnectionProvider.onShard(ConnectionProvider.shardOfIndexNumber(indexNumber),
+                    () -> QueryExecutor.createAndObtainId(sql, args));
+            return Optional.of(identities().put(new Student(id, firstName, lastName, indexNumber)));
         } catch (SQLException e) {
             e.printStackTrace();
         }
         return Optional.empty();
     }
 
+    public static List<Student> createAll(final Collection<Draft> drafts) {
+        return createAll(drafts, QueryExecutor.DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * On a sharded database the drafts are inserted shard by shard; shards written before a failure stay written.
+     */
+    public static List<Student> createAll(final Collection<Draft> drafts, final int chunkSize) {
+        if (!ConnectionProvider.isSharded()) {
+            return createAllOnShard(drafts, chunkSize);
+        }
+        Map<Integer, Student> byIndexNumber = new HashMap<>();
+        for (Map.Entry<Integer, List<Draft>> group
+                : Shards.group(drafts, draft -> ConnectionProvider.shardOfIndexNumber(draft.indexNumber)).entrySet()) {
+            List<Student> created =
+                    ConnectionProvider.onShard(group.getKey(), () -> createAllOnShard(group.getValue(), chunkSize));
+            if (created.isEmpty()) {
+                return Collections.emptyList();
+            }
+            for (Student student : created) {
+                byIndexNumber.put(student.indexNumber, student);
+            }
+        }
+        List<Student> students = new ArrayList<>(drafts.size());
+        for (Draft draft : drafts) {
+            students.add(byIndexNumber.get(draft.indexNumber));
+        }
+        return students;
+    }
+
+    private static List<Student> createAllOnShard(final Collection<Draft> drafts, final int chunkSize) {
+        String sql = "INSERT INTO student (first_name, last_name, index_number) VALUES (?, ?, ?)";
+
+        List<Object[]> rows = new ArrayList<>(drafts.size());
+        for (Draft draft : drafts) {
+            rows.add(new Object[] {
+                    draft.firstName,
+                    draft.lastName,
+                    draft.indexNumber
+            });
+        }
+
+        try {
+            int[] ids = QueryExecutor.executeBatch(sql, rows, chunkSize);
+            IdentityMap<Student> identities = identities();
+            List<Student> students = new ArrayList<>(ids.length);
+            int i = 0;
+            for (Draft draft : drafts) {
+                students.add(identities.put(new Student(ids[i++], draft.firstName, draft.lastName, draft.indexNumber)));
+            }
+            return students;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyList();
+    }
+
+    public static Draft draft(final String firstName, final String lastName, final int indexNumber) {
+        return new Draft(firstName, lastName, indexNumber);
+    }
+
     public static Optional<Student> findByIndexNumber(final int indexNumber) {
-        // TODO: done
+        Optional<Student> cached = identities().getByNaturalKey(indexNumber);
+        if (cached.isPresent()) {
+            return cached;
+        }
         String sql = "SELECT * FROM student WHERE index_number = (?)";
 
-        return find(indexNumber, sql);
+        return find(ConnectionProvider.shardOfIndexNumber(indexNumber), indexNumber, sql);
     }
 
     public static Optional<Student> findById(final int id) {
+        Optional<Student> cached = identities().get(id);
+        if (cached.isPresent()) {
+            return cached;
+        }
         String sql = "SELECT * FROM student WHERE id = (?)";
-        return find(id, sql);
+        return find(ConnectionProvider.shardOfId(id), id, sql);
+    }
+
+    /**
+     * Students with the given ids, keyed by id; ids without a student are left out.
+     */
+    public static Map<Integer, Student> findByIds(final Collection<Integer> ids) {
+        IdentityMap<Student> identities = identities();
+        Map<Integer, Student> found = new HashMap<>();
+        for (Map.Entry<Integer, List<Integer>> group : Shards.group(ids, ConnectionProvider::shardOfId).entrySet()) {
+            found.putAll(ConnectionProvider.onShard(group.getKey(), () -> MultiGet.find(TABLE_NAME, Columns.ID,
+                    group.getValue(), ROW_MAPPER, Student::id, identities::get)));
+        }
+        batched(found.values());
+        return found;
+    }
+
+    /**
+     * Students with the given index numbers, keyed by index number; unknown numbers are left out.
+     */
+    public static Map<Integer, Student> findByIndexNumbers(final Collection<Integer> indexNumbers) {
+        IdentityMap<Student> identities = identities();
+        Map<Integer, Student> found = new HashMap<>();
+        for (Map.Entry<Integer, List<Integer>> group
+                : Shards.group(indexNumbers, ConnectionProvider::shardOfIndexNumber).entrySet()) {
+            found.putAll(ConnectionProvider.onShard(group.getKey(), () -> MultiGet.find(TABLE_NAME,
+                    Columns.INDEX_NUMBER, group.getValue(), ROW_MAPPER, Student::indexNumber,
+                    identities::getByNaturalKey)));
+        }
+        batched(found.values());
+        return found;
+    }
+
+    /**
+     * Students whose first or last name starts with every word of the query, best matches first.
+     * The ranking is BM25 over the per-column hit counts that FTS4 reports through matchinfo, see
+     * {@link SqlFunctions#BM25}; each shard ranks and limits its own matches and only their top rows are merged.
+     */
+    public static List<Student> search(final String query, final int limit) {
+        String match = matchExpression(query);
+        if (match.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        String sql = "SELECT s.*, " + SqlFunctions.BM25 + "(matchinfo(" + SchemaManager.STUDENT_SEARCH_TABLE +
+                ", 'pcnx'), ?) AS score " +
+                "FROM " + SchemaManager.STUDENT_SEARCH_TABLE + " " +
+                "INNER JOIN student s ON s.id = " + SchemaManager.STUDENT_SEARCH_TABLE + ".docid " +
+                "WHERE " + SchemaManager.STUDENT_SEARCH_TABLE + " MATCH (?) " +
+                "ORDER BY score DESC, s.last_name, s.first_name, s.id LIMIT ?";
+
+        try {
+            List<SearchHit> hits = QueryExecutor.queryAllShards(sql,
+                    rs -> new SearchHit(ROW_MAPPER.map(rs), rs.getDouble("score")), SEARCH_TERM_SATURATION, match,
+                    limit);
+            hits.sort(Comparator.comparingDouble((SearchHit hit) -> -hit.score)
+                    .thenComparing(hit -> hit.student.lastName)
+                    .thenComparing(hit -> hit.student.firstName)
+                    .thenComparingInt(hit -> hit.student.id));
+            List<Student> students = new ArrayList<>(Math.min(limit, hits.size()));
+            for (SearchHit hit : hits.subList(0, Math.min(limit, hits.size()))) {
+                students.add(hit.student);
+            }
+            return batched(students);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyList();
+    }
+
+    // every word becomes a lower-case prefix term, which also keeps AND/OR/NOT/NEAR from being read as operators
+    private static String matchExpression(final String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                match.append(match.length() == 0 ? "" : " ").append(word).append('*');
+            }
+        }
+        return match.toString();
+    }
+
+    static IdentityMap<Student> identities() {
+        return IdentityMaps.current(IDENTITY);
     }
 
-    private static Optional<Student> find(int value, String sql) {
-        Object[] args = {value};
+    private static Optional<Student> find(int shard, int value, String sql) {
         try {
-            ResultSet rs = QueryExecutor.read(sql, args);
-            return Optional.of(
-                    new Student(
-                            rs.getInt("id"),
-                            rs.getString("first_name"),
-                            rs.getString("last_name"),
-                            rs.getInt("index_number")
-                    )
-            );
+            return ConnectionProvider.onShard(shard, () -> QueryExecutor.queryForObject(sql, ROW_MAPPER, value));
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -76,10 +269,124 @@ public class Student {
     }
 
     public Map<Course, Float> createReport() {
-        // TODO additional task
+        String sql = "SELECT c.id, c.name, AVG(g.grade) AS average FROM grade g " +
+                "INNER JOIN course c ON c.id = g.course_id " +
+                "WHERE g.student_id = (?) " +
+                "GROUP BY c.id, c.name";
+        Object[] args = {
+                this.id
+        };
+
+        try {
+            ResultSet rs = ConnectionProvider.onShard(ConnectionProvider.shardOfId(this.id),
+                    () -> QueryExecutor.read(sql, args));
+            IdentityMap<Course> courses = Course.identities();
+            Map<Course, Float> report = new HashMap<>();
+            while (rs.next()) {
+                report.put(courses.put(new Course(rs.getInt("id"), rs.getString("name"))), rs.getFloat("average"));
+            }
+            return Map.copyOf(report);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
         return Collections.emptyMap();
     }
 
+    /**
+     * Builds {@link #createReport()} for a whole cohort, reading grade once per chunk of students
+     * instead of once per student.
+     */
+    public static Map<Student, Map<Course, Float>> createReports(final Collection<Student> students) {
+        Map<Integer, Student> byId = new HashMap<>();
+        for (Student student : students) {
+            byId.put(student.id(), student);
+        }
+        Map<Integer, Map<Course, Float>> reports = new HashMap<>();
+        IdentityMap<Course> courses = Course.identities();
+
+        try {
+            for (Map.Entry<Integer, List<Integer>> group
+                    : Shards.group(byId.keySet(), ConnectionProvider::shardOfId).entrySet()) {
+                for (Object[] chunk
+                        : QueryHelper.inClauseChunks(group.getValue(), QueryHelper.IN_CLAUSE_CHUNK_SIZE)) {
+                    String sql = "SELECT g.student_id, c.id, c.name, AVG(g.grade) AS average FROM grade g " +
+                            "INNER JOIN course c ON c.id = g.course_id " +
+                            "WHERE g.student_id IN (" + QueryHelper.placeholders(chunk.length) + ") " +
+                            "GROUP BY g.student_id, c.id, c.name";
+                    ResultSet rs = ConnectionProvider.onShard(group.getKey(), () -> QueryExecutor.read(sql, chunk));
+                    while (rs.next()) {
+                        Course course = courses.put(new Course(rs.getInt("id"), rs.getString("name")));
+                        reports.computeIfAbsent(rs.getInt("student_id"), studentId -> new HashMap<>())
+                                .put(course, rs.getFloat("average"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return Collections.emptyMap();
+        }
+
+        Map<Student, Map<Course, Float>> result = new HashMap<>();
+        byId.forEach((studentId, student) ->
+                result.put(student, Map.copyOf(reports.getOrDefault(studentId, Collections.emptyMap()))));
+        return result;
+    }
+
+    /**
+     * Courses the student is enrolled in, loaded on first access and kept up to date by
+     * {@link Course#enrollStudent(Student)}. Students loaded together, e.g. one roster page, load their courses with
+     * one query.
+     */
+    public List<Course> courses() {
+        try {
+            return courses.get();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Grades of the student in all courses, loaded like {@link #courses()} and kept up to date by
+     * {@link Grade#gradeStudent(Student, Course, float)}.
+     */
+    public List<Grade> grades() {
+        try {
+            return grades.get();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return Collections.emptyList();
+    }
+
+    void enrolled(final Course course) {
+        courses.added(course);
+    }
+
+    void graded(final Grade grade) {
+        grades.added(grade);
+    }
+
+    static <C extends Collection<Student>> C batched(final C students) {
+        LazyRelation.batch(students, student -> student.courses);
+        LazyRelation.batch(students, student -> student.grades);
+        return students;
+    }
+
+    private static Map<Integer, List<Course>> loadCourses(final Collection<Integer> studentIds) throws SQLException {
+        Map<Integer, List<Course>> courses = LazyRelation.query(studentIds,
+                count -> String.format(LOAD_COURSES_SQL, QueryHelper.placeholders(count)), Course.ROW_MAPPER, true);
+        List<Course> all = new ArrayList<>();
+        courses.values().forEach(all::addAll);
+        Course.batched(all);
+        return courses;
+    }
+
+    private static Map<Integer, List<Grade>> loadGrades(final Collection<Integer> studentIds) throws SQLException {
+        return LazyRelation.query(studentIds,
+                count -> String.format(LOAD_GRADES_SQL, QueryHelper.placeholders(count)), Grade.ROW_MAPPER, true);
+    }
+
     public int id() {
         return id;
     }
@@ -107,6 +414,33 @@ public class Student {
         public static final String INDEX_NUMBER = "index_number";
     }
 
+    private static final class SearchHit {
+
+        private final Student student;
+
+        private final double score;
+
+        private SearchHit(final Student student, final double score) {
+            this.student = student;
+            this.score = score;
+        }
+    }
+
+    public static final class Draft {
+
+        private final String firstName;
+
+        private final String lastName;
+
+        private final int indexNumber;
+
+        private Draft(final String firstName, final String lastName, final int indexNumber) {
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.indexNumber = indexNumber;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
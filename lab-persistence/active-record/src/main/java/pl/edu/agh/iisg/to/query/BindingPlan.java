@@ -0,0 +1,41 @@
+package pl.edu.agh.iisg.to.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Parameter types of a statement resolved once, from a sample row, and reused for every row bound afterwards,
+ * e.g. over a batch. A value of a different class than the sample (or a null) falls back to per-value resolution.
+ */
+public final class BindingPlan {
+
+    private final Class<?>[] classes;
+
+    private final ParameterType[] types;
+
+    private BindingPlan(final Class<?>[] classes, final ParameterType[] types) {
+        this.classes = classes;
+        this.types = types;
+    }
+
+    public static BindingPlan of(final Object... sample) {
+        Class<?>[] classes = new Class<?>[sample.length];
+        ParameterType[] types = new ParameterType[sample.length];
+        for (int i = 0; i < sample.length; i++) {
+            classes[i] = sample[i] == null ? null : sample[i].getClass();
+            types[i] = ParameterType.of(sample[i]);
+        }
+        return new BindingPlan(classes, types);
+    }
+
+    public void bind(final PreparedStatement ps, final Object... args) throws SQLException {
+        if (args.length != types.length) {
+            throw new SQLException("Expected " + types.length + " parameters, got " + args.length);
+        }
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            ParameterType type = arg != null && arg.getClass() == classes[i] ? types[i] : ParameterType.of(arg);
+            type.bind(ps, i + 1, arg);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package pl.edu.agh.iisg.to.query;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
+
+/**
+ * Walks a result in pages using keyset (seek) pagination: every page is loaded with the key of the last row of the
+ * previous one, so each query starts from an index seek instead of skipping an offset. Only one page is held at a time.
+ */
+public final class KeysetPages<T> implements Iterable<List<T>> {
+
+    private final PageLoader<T> loader;
+
+    private final ToIntFunction<T> key;
+
+    private final int startAfter;
+
+    private final int pageSize;
+
+    public KeysetPages(final PageLoader<T> loader, final ToIntFunction<T> key, final int startAfter,
+                       final int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        this.loader = loader;
+        this.key = key;
+        this.startAfter = startAfter;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public Iterator<List<T>> iterator() {
+        return new Iterator<>() {
+
+            private int after = startAfter;
+
+            private List<T> next;
+
+            private boolean exhausted = false;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !exhausted) {
+                    next = loader.load(after, pageSize);
+                    if (next.isEmpty()) {
+                        next = null;
+                        exhausted = true;
+                    } else {
+                        after = key.applyAsInt(next.get(next.size() - 1));
+                        // a short page is the last one, so skip the query that would only confirm it
+                        exhausted = next.size() < pageSize;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public List<T> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<T> page = next;
+                next = null;
+                return page;
+            }
+        };
+    }
+
+    @FunctionalInterface
+    public interface PageLoader<T> {
+        /**
+         * Loads at most {@code limit} rows with a key greater than {@code afterKey}, in ascending key order.
+         */
+        List<T> load(int afterKey, int limit);
+    }
+}
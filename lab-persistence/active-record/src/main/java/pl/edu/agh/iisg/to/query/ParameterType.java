@@ -0,0 +1,182 @@
+package pl.edu.agh.iisg.to.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.Date;
+
+/**
+ * How a Java value is bound to a statement parameter. Booleans are stored as 0/1 and temporal values as ISO-8601
+ * text ({@code yyyy-MM-dd}, {@code HH:mm:ss} and {@code yyyy-MM-dd HH:mm:ss[.SSS]}), the forms SQLite's date
+ * functions read. The {@code java.sql} types are written as the wall-clock values they stand for, like their
+ * {@code java.time} counterparts; {@link Instant} and {@link Date}, which are points in time, are written in UTC.
+ */
+public enum ParameterType {
+
+    NULL {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setNull(index, Types.NULL);
+        }
+    },
+    BOOLEAN {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setInt(index, (Boolean) value ? 1 : 0);
+        }
+    },
+    INTEGER {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setInt(index, ((Number) value).intValue());
+        }
+    },
+    LONG {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setLong(index, (Long) value);
+        }
+    },
+    FLOAT {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setFloat(index, (Float) value);
+        }
+    },
+    DOUBLE {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setDouble(index, (Double) value);
+        }
+    },
+    STRING {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setString(index, (String) value);
+        }
+    },
+    BYTES {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setBytes(index, (byte[]) value);
+        }
+    },
+    LOCAL_DATE {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setString(index, value.toString());
+        }
+    },
+    SQL_DATE {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setString(index, ((java.sql.Date) value).toLocalDate().toString());
+        }
+    },
+    LOCAL_DATE_TIME {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setString(index, DATE_TIME.format((LocalDateTime) value));
+        }
+    },
+    SQL_TIME {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setString(index, TIME.format(((Time) value).toLocalTime()));
+        }
+    },
+    TIMESTAMP {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setString(index, DATE_TIME.format(((Timestamp) value).toLocalDateTime()));
+        }
+    },
+    INSTANT {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setString(index, DATE_TIME.format(((Instant) value).atOffset(ZoneOffset.UTC)));
+        }
+    },
+    DATE {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            ps.setString(index, DATE_TIME.format(((Date) value).toInstant().atOffset(ZoneOffset.UTC)));
+        }
+    },
+    UNSUPPORTED {
+        @Override
+        void bind(final PreparedStatement ps, final int index, final Object value) throws SQLException {
+            throw new SQLException("Unsupported parameter type " + value.getClass().getName() + " at index " + index);
+        }
+    };
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private static final DateTimeFormatter DATE_TIME = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .appendLiteral(' ')
+            .appendPattern("HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.MILLI_OF_SECOND, 3, 3, true)
+            .toFormatter();
+
+    // resolved once per class instead of walking an instanceof chain for every argument
+    private static final ClassValue<ParameterType> BY_CLASS = new ClassValue<>() {
+        @Override
+        protected ParameterType computeValue(final Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    abstract void bind(PreparedStatement ps, int index, Object value) throws SQLException;
+
+    public static ParameterType of(final Object value) {
+        return value == null ? NULL : BY_CLASS.get(value.getClass());
+    }
+
+    public static ParameterType of(final Class<?> type) {
+        return BY_CLASS.get(type);
+    }
+
+    private static ParameterType resolve(final Class<?> type) {
+        if (type == Boolean.class) {
+            return BOOLEAN;
+        } else if (type == Integer.class || type == Short.class || type == Byte.class) {
+            return INTEGER;
+        } else if (type == Long.class) {
+            return LONG;
+        } else if (type == Float.class) {
+            return FLOAT;
+        } else if (type == Double.class) {
+            return DOUBLE;
+        } else if (type == String.class) {
+            return STRING;
+        } else if (type == byte[].class) {
+            return BYTES;
+        } else if (type == LocalDate.class) {
+            return LOCAL_DATE;
+        } else if (type == LocalDateTime.class) {
+            return LOCAL_DATE_TIME;
+        } else if (type == Instant.class) {
+            return INSTANT;
+        } else if (java.sql.Date.class.isAssignableFrom(type)) {
+            return SQL_DATE;
+        } else if (Time.class.isAssignableFrom(type)) {
+            return SQL_TIME;
+        } else if (Timestamp.class.isAssignableFrom(type)) {
+            return TIMESTAMP;
+        } else if (Date.class.isAssignableFrom(type)) {
+            return DATE;
+        }
+        return UNSUPPORTED;
+    }
+}
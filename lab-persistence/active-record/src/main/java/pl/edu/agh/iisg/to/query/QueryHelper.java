@@ -4,11 +4,19 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
+import pl.edu.agh.iisg.to.connection.ConnectionLease;
 import pl.edu.agh.iisg.to.connection.ConnectionProvider;
 
 public class QueryHelper {
 
+	// SQLite's default limit is 999 host parameters per statement
+	public static final int IN_CLAUSE_CHUNK_SIZE = 500;
+
 	public static PreparedStatement prepareStatement(String query) throws SQLException {
 		return ConnectionProvider.getConnection().prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
 	}
@@ -17,20 +25,59 @@ public class QueryHelper {
         return resultSet.next() ? resultSet.getInt(1) : -1;
     }
 
+	/**
+	 * Binds the arguments by their runtime type, see {@link ParameterType}; {@code null} binds SQL NULL and
+	 * an argument of an unsupported type fails with an {@link SQLException}. The types are resolved on every call;
+	 * for statements from the lease's cache prefer {@link #mapParams(ConnectionLease, String, PreparedStatement, Object...)}.
+	 */
 	public static void mapParams(PreparedStatement ps, Object... args) throws SQLException {
-		int i = 1;
-		for (Object arg : args) {
-			if (arg instanceof Integer) {
-				ps.setInt(i++, (Integer) arg);
-			} else if (arg instanceof Long) {
-				ps.setLong(i++, (Long) arg);
-			} else if (arg instanceof Double) {
-				ps.setDouble(i++, (Double) arg);
-			} else if (arg instanceof Float) {
-				ps.setFloat(i++, (Float) arg);
-			} else {
-				ps.setString(i++, (String) arg);
+		for (int i = 0; i < args.length; i++) {
+			ParameterType.of(args[i]).bind(ps, i + 1, args[i]);
+		}
+	}
+
+	/**
+	 * As {@link #mapParams(PreparedStatement, Object...)}, for a statement the lease prepared from {@code sql}: the
+	 * types are resolved on the statement's first use and reused while it stays cached.
+	 */
+	public static void mapParams(ConnectionLease lease, String sql, PreparedStatement ps, Object... args)
+			throws SQLException {
+		lease.bindingPlan(sql, args).bind(ps, args);
+	}
+
+	public static String placeholders(final int count) {
+		StringBuilder sb = new StringBuilder(count * 3);
+		for (int i = 0; i < count; i++) {
+			sb.append(i == 0 ? "?" : ", ?");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Splits keys into parameter arrays for an IN (...) filter. Chunks are at most {@code maxChunkSize} long and
+	 * their length is rounded up to a power of two by repeating the last key, which does not change the filter
+	 * but keeps the number of distinct SQL texts (and so of cached statements) small.
+	 */
+	public static List<Object[]> inClauseChunks(final Collection<Integer> keys, final int maxChunkSize) {
+		int chunkSize = 1;
+		while (chunkSize < keys.size() && chunkSize < maxChunkSize) {
+			chunkSize <<= 1;
+		}
+		chunkSize = Math.min(chunkSize, maxChunkSize);
+		List<Object[]> chunks = new ArrayList<>((keys.size() + chunkSize - 1) / chunkSize);
+		Iterator<Integer> iterator = keys.iterator();
+		while (iterator.hasNext()) {
+			Object[] chunk = new Object[chunkSize];
+			int i = 0;
+			while (i < chunkSize && iterator.hasNext()) {
+				chunk[i++] = iterator.next();
+			}
+			while (i < chunkSize) {
+				chunk[i] = chunk[i - 1];
+				i++;
 			}
+			chunks.add(chunk);
 		}
+		return chunks;
 	}
 }
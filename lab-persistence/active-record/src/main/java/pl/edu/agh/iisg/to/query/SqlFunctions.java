@@ -0,0 +1,60 @@
+package pl.edu.agh.iisg.to.query;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.sqlite.Function;
+
+/**
+ * Application-defined SQL functions, registered on every pooled connection.
+ */
+public final class SqlFunctions {
+
+    /**
+     * {@code bm25(matchinfo(fts_table, 'pcnx'), k1)}: the BM25 score of an FTS4 match, summed over phrases and columns,
+     * with {@code k1} as the term frequency saturation. Document length is not taken into account.
+     */
+    public static final String BM25 = "bm25";
+
+    private SqlFunctions() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static void register(final Connection connection) throws SQLException {
+        Function.create(connection, BM25, new Bm25());
+    }
+
+    static double bm25(final byte[] matchInfo, final double saturation) {
+        ByteBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = info.getInt();
+        int columns = info.getInt();
+        int rows = info.getInt();
+        double score = 0.0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns; column++) {
+                int hits = info.getInt();
+                info.getInt();
+                int rowsWithHits = info.getInt();
+                if (hits > 0) {
+                    double idf = Math.log(1.0 + (rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+                    score += idf * hits * (saturation + 1.0) / (hits + saturation);
+                }
+            }
+        }
+        return score;
+    }
+
+    private static final class Bm25 extends Function {
+
+        @Override
+        protected void xFunc() throws SQLException {
+            if (args() != 2) {
+                error(BM25 + "() takes the matchinfo blob and k1");
+                return;
+            }
+            result(bm25(value_blob(0), value_double(1)));
+        }
+    }
+}
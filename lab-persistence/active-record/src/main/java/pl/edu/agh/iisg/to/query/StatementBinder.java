@@ -0,0 +1,14 @@
+package pl.edu.agh.iisg.to.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Binds the parameters of a statement with the typed setters directly, without boxing them into an argument array.
+ */
+@FunctionalInterface
+public interface StatementBinder {
+
+    void bind(PreparedStatement ps) throws SQLException;
+
+}
@@ -0,0 +1,43 @@
+package pl.edu.agh.iisg.to.schema;
+
+import java.util.List;
+import java.util.Set;
+
+public final class QueryPlan {
+
+    private final String sql;
+
+    private final List<String> steps;
+
+    private final Set<String> scannedTables;
+
+    QueryPlan(final String sql, final List<String> steps, final Set<String> scannedTables) {
+        this.sql = sql;
+        this.steps = List.copyOf(steps);
+        this.scannedTables = Set.copyOf(scannedTables);
+    }
+
+    public String sql() {
+        return sql;
+    }
+
+    public List<String> steps() {
+        return steps;
+    }
+
+    /**
+     * Tables read by a full scan, i.e. without any index.
+     */
+    public Set<String> scannedTables() {
+        return scannedTables;
+    }
+
+    public boolean hasFullTableScan() {
+        return !scannedTables.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return (hasFullTableScan() ? "FULL SCAN of " + scannedTables : "ok") + ": " + sql + " " + steps;
+    }
+}
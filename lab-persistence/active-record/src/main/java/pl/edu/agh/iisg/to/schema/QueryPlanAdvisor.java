@@ -0,0 +1,94 @@
+package pl.edu.agh.iisg.to.schema;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import pl.edu.agh.iisg.to.connection.ConnectionLease;
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+
+/**
+ * Runs EXPLAIN QUERY PLAN over query templates and flags the ones that read a table without an index.
+ */
+public final class QueryPlanAdvisor {
+
+    private static final Logger logger = Logger.getGlobal();
+
+    // possessive, so that neither the table name nor its alias can be cut short to dodge the lookahead
+    private static final Pattern FULL_SCAN =
+            Pattern.compile("^SCAN TABLE (\\w++)(?: AS \\w++)?+(?! USING| VIRTUAL TABLE)");
+
+    private static final Set<String> TEMPLATES = new CopyOnWriteArraySet<>();
+
+    private QueryPlanAdvisor() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static void register(final String sql) {
+        TEMPLATES.add(sql);
+    }
+
+    /**
+     * Analyzes the registered templates together with every SELECT prepared so far by the pooled connections.
+     */
+    public static List<QueryPlan> analyze() throws SQLException {
+        Set<String> templates = new LinkedHashSet<>(TEMPLATES);
+        for (String sql : ConnectionProvider.statementCacheStatistics().preparations().keySet()) {
+            if (sql.trim().toUpperCase(Locale.ROOT).startsWith("SELECT")) {
+                templates.add(sql);
+            }
+        }
+        return analyze(templates);
+    }
+
+    public static List<QueryPlan> analyze(final Iterable<String> templates) throws SQLException {
+        List<QueryPlan> plans = new ArrayList<>();
+        try (ConnectionLease lease = ConnectionProvider.reader();
+             Statement statement = lease.connection().createStatement()) {
+            for (String sql : templates) {
+                try {
+                    plans.add(explain(statement, sql));
+                } catch (SQLException e) {
+                    // a statement that failed to prepare still shows up among the cached preparations
+                    logger.info("Cannot explain query " + sql + ": " + e.getMessage());
+                }
+            }
+        }
+        return plans;
+    }
+
+    public static List<QueryPlan> fullTableScans() throws SQLException {
+        List<QueryPlan> scans = new ArrayList<>();
+        for (QueryPlan plan : analyze()) {
+            if (plan.hasFullTableScan()) {
+                scans.add(plan);
+            }
+        }
+        return scans;
+    }
+
+    private static QueryPlan explain(final Statement statement, final String sql) throws SQLException {
+        List<String> steps = new ArrayList<>();
+        Set<String> scannedTables = new LinkedHashSet<>();
+        try (ResultSet rs = statement.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) {
+                String detail = rs.getString("detail");
+                steps.add(detail);
+                Matcher matcher = FULL_SCAN.matcher(detail);
+                if (matcher.find()) {
+                    scannedTables.add(matcher.group(1));
+                }
+            }
+        }
+        return new QueryPlan(sql, steps, scannedTables);
+    }
+}
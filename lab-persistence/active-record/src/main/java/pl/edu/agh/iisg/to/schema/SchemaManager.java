@@ -0,0 +1,297 @@
+package pl.edu.agh.iisg.to.schema;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import pl.edu.agh.iisg.to.connection.ConnectionLease;
+import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+
+/**
+ * Applies the numbered migrations that are not yet recorded in {@value #VERSION_TABLE}, each in its own transaction.
+ */
+public final class SchemaManager {
+
+    public static final String VERSION_TABLE = "schema_version";
+
+    public static final String STUDENT_SEARCH_TABLE = "student_fts";
+
+    public static final String COURSE_STATS_TABLE = "course_grade_stats";
+
+    public static final String COURSE_HISTOGRAM_TABLE = "course_grade_histogram";
+
+    private static final Logger logger = Logger.getGlobal();
+
+    private static final List<String> SHARDED_TABLES = List.of("student", "student_course", "grade");
+
+    private static final Map<String, String> SECONDARY_INDEXES = orderedMap(
+            "idx_student_course_course", "CREATE INDEX IF NOT EXISTS idx_student_course_course ON student_course (course_id, student_id)",
+            "idx_grade_student_course", "CREATE INDEX IF NOT EXISTS idx_grade_student_course ON grade (student_id, course_id)",
+            "idx_grade_course", "CREATE INDEX IF NOT EXISTS idx_grade_course ON grade (course_id)"
+    );
+
+    // external-content index over student: it stores only the tokens, the names are read back from student by docid
+    private static final Map<String, String> SEARCH_TRIGGERS = orderedMap(
+            "student_fts_insert", "CREATE TRIGGER IF NOT EXISTS student_fts_insert AFTER INSERT ON student BEGIN " +
+                    "INSERT INTO student_fts (docid, first_name, last_name) VALUES (new.id, new.first_name, new.last_name); " +
+                    "END",
+            "student_fts_before_update", "CREATE TRIGGER IF NOT EXISTS student_fts_before_update BEFORE UPDATE ON student BEGIN " +
+                    "DELETE FROM student_fts WHERE docid = old.id; " +
+                    "END",
+            "student_fts_after_update", "CREATE TRIGGER IF NOT EXISTS student_fts_after_update AFTER UPDATE ON student BEGIN " +
+                    "INSERT INTO student_fts (docid, first_name, last_name) VALUES (new.id, new.first_name, new.last_name); " +
+                    "END",
+            "student_fts_delete", "CREATE TRIGGER IF NOT EXISTS student_fts_delete BEFORE DELETE ON student BEGIN " +
+                    "DELETE FROM student_fts WHERE docid = old.id; " +
+                    "END"
+    );
+
+    private static final List<Migration> MIGRATIONS = new ArrayList<>(List.of(
+            new Migration(1, "Create tables",
+                    "CREATE TABLE IF NOT EXISTS student (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "first_name VARCHAR(50) NOT NULL, " +
+                            "last_name VARCHAR(50) NOT NULL, " +
+                            "index_number int NOT NULL, " +
+                            "UNIQUE (index_number) " +
+                            ");",
+                    "CREATE TABLE IF NOT EXISTS course (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "name VARCHAR(50) NOT NULL, " +
+                            "UNIQUE (name) " +
+                            ");",
+                    "CREATE TABLE IF NOT EXISTS student_course (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "student_id INT NOT NULL, " +
+                            "course_id INT NOT NULL, " +
+                            "FOREIGN KEY(student_id) references student (id), " +
+                            "FOREIGN KEY(course_id) references course (id), " +
+                            "UNIQUE (student_id, course_id)" +
+                            ");",
+                    "CREATE TABLE IF NOT EXISTS grade (" +
+                            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            "grade REAL NOT NULL, " +
+                            "student_id INT NOT NULL, " +
+                            "course_id INT NOT NULL, " +
+                            "FOREIGN KEY(student_id) references student (id), " +
+                            "FOREIGN KEY(course_id) references course (id) " +
+                            ");"),
+            new Migration(2, "Add secondary indexes", SECONDARY_INDEXES.values().toArray(String[]::new)),
+            new Migration(3, "Add student name search index", searchIndexStatements(
+                    "CREATE VIRTUAL TABLE IF NOT EXISTS " + STUDENT_SEARCH_TABLE + " USING fts4(" +
+                            "content=\"student\", first_name, last_name, tokenize=unicode61)").toArray(String[]::new)),
+            new Migration(4, "Add course grade statistics",
+                    "CREATE TABLE IF NOT EXISTS " + COURSE_STATS_TABLE + " (" +
+                            "course_id INTEGER PRIMARY KEY, " +
+                            "grade_count INT NOT NULL, " +
+                            "grade_sum REAL NOT NULL, " +
+                            "min_grade REAL NOT NULL, " +
+                            "max_grade REAL NOT NULL" +
+                            ");",
+                    "CREATE TABLE IF NOT EXISTS " + COURSE_HISTOGRAM_TABLE + " (" +
+                            "course_id INT NOT NULL, " +
+                            "grade REAL NOT NULL, " +
+                            "grade_count INT NOT NULL, " +
+                            "PRIMARY KEY (course_id, grade)" +
+                            ");",
+                    "CREATE TRIGGER IF NOT EXISTS course_grade_stats_insert AFTER INSERT ON grade BEGIN " +
+                            addToCourseStats("new") + "END",
+                    "CREATE TRIGGER IF NOT EXISTS course_grade_stats_update AFTER UPDATE OF grade, course_id ON grade BEGIN " +
+                            removeFromCourseStats("old") + addToCourseStats("new") + "END",
+                    "CREATE TRIGGER IF NOT EXISTS course_grade_stats_delete AFTER DELETE ON grade BEGIN " +
+                            removeFromCourseStats("old") + "END",
+                    "INSERT OR REPLACE INTO " + COURSE_HISTOGRAM_TABLE + " (course_id, grade, grade_count) " +
+                            "SELECT course_id, grade, COUNT(*) FROM grade GROUP BY course_id, grade",
+                    "INSERT OR REPLACE INTO " + COURSE_STATS_TABLE + " (course_id, grade_count, grade_sum, min_grade, max_grade) " +
+                            "SELECT course_id, COUNT(*), SUM(grade), MIN(grade), MAX(grade) FROM grade GROUP BY course_id")
+    ));
+
+    private SchemaManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static List<Migration> migrations() {
+        return List.copyOf(MIGRATIONS);
+    }
+
+    public static void migrate() throws SQLException {
+        try (ConnectionLease lease = ConnectionProvider.writer()) {
+            Connection connection = lease.connection();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " (" +
+                        "version INTEGER PRIMARY KEY, " +
+                        "description VARCHAR(200) NOT NULL, " +
+                        "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP" +
+                        ");");
+            }
+            int current = currentVersion(connection);
+            List<Migration> pending = new ArrayList<>();
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version() > current) {
+                    pending.add(migration);
+                }
+            }
+            pending.sort(Comparator.comparingInt(Migration::version));
+            for (Migration migration : pending) {
+                apply(connection, migration);
+            }
+        }
+    }
+
+    /**
+     * Drops the secondary indexes so that a bulk load does not maintain them row by row;
+     * {@link #createSecondaryIndexes()} builds them again in one pass afterwards.
+     */
+    public static void dropSecondaryIndexes() throws SQLException {
+        List<String> drops = new ArrayList<>();
+        for (String name : SECONDARY_INDEXES.keySet()) {
+            drops.add("DROP INDEX IF EXISTS " + name);
+        }
+        executeAll(drops);
+    }
+
+    public static void createSecondaryIndexes() throws SQLException {
+        executeAll(new ArrayList<>(SECONDARY_INDEXES.values()));
+    }
+
+    /**
+     * Turns the current database into a shard: drops its own, empty course table so that course resolves to the
+     * attached shared database, and makes the ids of the sharded tables start after {@code idBase}
+     * unless the shard already generated ids.
+     */
+    public static void prepareShard(final int idBase) throws SQLException {
+        try (ConnectionLease lease = ConnectionProvider.writer();
+             Statement statement = lease.connection().createStatement()) {
+            if (count(statement, "SELECT COUNT(*) FROM main.sqlite_master WHERE type = 'table' AND name = 'course'") > 0
+                    && count(statement, "SELECT COUNT(*) FROM main.course") > 0) {
+                throw new SQLException("The shard has courses of its own, they belong in the shared database");
+            }
+        }
+        List<String> statements = new ArrayList<>();
+        statements.add("DROP TABLE IF EXISTS main.course");
+        for (String table : SHARDED_TABLES) {
+            statements.add("INSERT INTO main.sqlite_sequence (name, seq) SELECT '" + table + "', " + idBase + " " +
+                    "WHERE NOT EXISTS (SELECT 1 FROM main.sqlite_sequence WHERE name = '" + table + "')");
+        }
+        executeAll(statements);
+    }
+
+    /**
+     * Stops maintaining the search index on every student write; {@link #rebuildSearchIndex()} restores it.
+     */
+    public static void dropSearchTriggers() throws SQLException {
+        List<String> drops = new ArrayList<>();
+        for (String name : SEARCH_TRIGGERS.keySet()) {
+            drops.add("DROP TRIGGER IF EXISTS " + name);
+        }
+        executeAll(drops);
+    }
+
+    /**
+     * Recreates {@value #STUDENT_SEARCH_TABLE} from the student table, e.g. after a bulk load
+     * or for a database whose index got out of sync.
+     */
+    public static void rebuildSearchIndex() throws SQLException {
+        executeAll(searchIndexStatements());
+    }
+
+    // trigger body steps counting the new or old grade row into the statistics of its course
+    private static String addToCourseStats(final String row) {
+        return "INSERT OR IGNORE INTO " + COURSE_HISTOGRAM_TABLE + " (course_id, grade, grade_count) " +
+                "VALUES (" + row + ".course_id, " + row + ".grade, 0); " +
+                "UPDATE " + COURSE_HISTOGRAM_TABLE + " SET grade_count = grade_count + 1 " +
+                "WHERE course_id = " + row + ".course_id AND grade = " + row + ".grade; " +
+                "INSERT OR IGNORE INTO " + COURSE_STATS_TABLE + " (course_id, grade_count, grade_sum, min_grade, max_grade) " +
+                "VALUES (" + row + ".course_id, 0, 0.0, " + row + ".grade, " + row + ".grade); " +
+                "UPDATE " + COURSE_STATS_TABLE + " SET grade_count = grade_count + 1, grade_sum = grade_sum + " + row + ".grade, " +
+                "min_grade = MIN(min_grade, " + row + ".grade), max_grade = MAX(max_grade, " + row + ".grade) " +
+                "WHERE course_id = " + row + ".course_id; ";
+    }
+
+    // min and max of the remaining grades come from the histogram, which has one row per distinct grade value
+    private static String removeFromCourseStats(final String row) {
+        return "UPDATE " + COURSE_HISTOGRAM_TABLE + " SET grade_count = grade_count - 1 " +
+                "WHERE course_id = " + row + ".course_id AND grade = " + row + ".grade; " +
+                "DELETE FROM " + COURSE_HISTOGRAM_TABLE + " " +
+                "WHERE course_id = " + row + ".course_id AND grade = " + row + ".grade AND grade_count <= 0; " +
+                "UPDATE " + COURSE_STATS_TABLE + " SET grade_count = grade_count - 1, grade_sum = grade_sum - " + row + ".grade, " +
+                "min_grade = IFNULL((SELECT MIN(grade) FROM " + COURSE_HISTOGRAM_TABLE + " WHERE course_id = " + row + ".course_id), 0), " +
+                "max_grade = IFNULL((SELECT MAX(grade) FROM " + COURSE_HISTOGRAM_TABLE + " WHERE course_id = " + row + ".course_id), 0) " +
+                "WHERE course_id = " + row + ".course_id; " +
+                "DELETE FROM " + COURSE_STATS_TABLE + " WHERE course_id = " + row + ".course_id AND grade_count <= 0; ";
+    }
+
+    private static List<String> searchIndexStatements(final String... before) {
+        List<String> statements = new ArrayList<>(List.of(before));
+        statements.addAll(SEARCH_TRIGGERS.values());
+        statements.add("INSERT INTO " + STUDENT_SEARCH_TABLE + " (" + STUDENT_SEARCH_TABLE + ") VALUES ('rebuild')");
+        statements.add("INSERT INTO " + STUDENT_SEARCH_TABLE + " (" + STUDENT_SEARCH_TABLE + ") VALUES ('optimize')");
+        return statements;
+    }
+
+    private static int count(final Statement statement, final String sql) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void executeAll(final List<String> statements) throws SQLException {
+        try (ConnectionLease lease = ConnectionProvider.writer();
+             Statement statement = lease.connection().createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    private static Map<String, String> orderedMap(final String... entries) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put(entries[i], entries[i + 1]);
+        }
+        return map;
+    }
+
+    public static int currentVersion() throws SQLException {
+        try (ConnectionLease lease = ConnectionProvider.reader()) {
+            return currentVersion(lease.connection());
+        }
+    }
+
+    private static int currentVersion(final Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT MAX(version) FROM " + VERSION_TABLE)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void apply(final Connection connection, final Migration migration) throws SQLException {
+        logger.info(String.format("Applying migration %d: %s", migration.version(), migration.description()));
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement();
+             PreparedStatement record = connection.prepareStatement(
+                     "INSERT INTO " + VERSION_TABLE + " (version, description) VALUES (?, ?)")) {
+            for (String sql : migration.statements()) {
+                statement.execute(sql);
+            }
+            record.setInt(1, migration.version());
+            record.setString(2, migration.description());
+            record.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
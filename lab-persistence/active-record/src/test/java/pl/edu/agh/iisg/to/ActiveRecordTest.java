@@ -1,10 +1,20 @@
 package pl.edu.agh.iisg.to;
 
+import java.io.StringReader;
 import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
@@ -12,11 +22,22 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import pl.edu.agh.iisg.to.cache.IdentityMaps;
 import pl.edu.agh.iisg.to.connection.ConnectionProvider;
+import pl.edu.agh.iisg.to.connection.PoolSettings;
+import pl.edu.agh.iisg.to.executor.AsyncQueryExecutor;
+import pl.edu.agh.iisg.to.executor.ChangeEvent;
+import pl.edu.agh.iisg.to.executor.ChangeFeed;
 import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.executor.QueryMetrics;
+import pl.edu.agh.iisg.to.executor.TableChangeListener;
+import pl.edu.agh.iisg.to.importer.BulkImporter;
+import pl.edu.agh.iisg.to.model.AsyncFinders;
 import pl.edu.agh.iisg.to.model.Course;
 import pl.edu.agh.iisg.to.model.Grade;
 import pl.edu.agh.iisg.to.model.Student;
+import pl.edu.agh.iisg.to.schema.QueryPlanAdvisor;
+import pl.edu.agh.iisg.to.schema.SchemaManager;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -169,6 +190,176 @@ public class ActiveRecordTest {
         assertEquals(cachedStudents, students);
     }
 
+    @Test
+    public void cachedCourseStudentListUpdateTest() throws SQLException {
+        // When
+        var student1 = Student.create("Adam", "Paciaciak", 800127);
+        var student2 = Student.create("Jan", "Paciaciak", 800128);
+        var course = Course.create("WDI 2");
+
+        course.get().enrollStudent(student1.get());
+        List<Student> before = course.get().cachedStudentsList();
+        course.get().enrollStudent(student2.get());
+        List<Student> after = course.get().cachedStudentsList();
+
+        var student3 = Student.create("Kasia", "Paciaciak", 800129);
+        QueryExecutor.create("INSERT INTO student_course (student_id, course_id) VALUES (?, ?);",
+                student3.get().id(), course.get().id());
+        List<Student> refreshed = course.get().cachedStudentsList();
+        course.get().invalidateCachedStudentsList();
+        List<Student> reloaded = course.get().cachedStudentsList();
+
+        // Then
+        assertEquals(List.of(student1.get()), before);
+        assertEquals(2, after.size());
+        assertTrue(after.contains(student2.get()));
+        assertThrows(UnsupportedOperationException.class, () -> after.add(student1.get()));
+        assertEquals(3, refreshed.size());
+        assertTrue(refreshed.contains(student3.get()));
+        assertEquals(refreshed, reloaded);
+    }
+
+    @Test
+    public void identityMapTest() throws SQLException {
+        // Given
+        var student = Student.create("Kasia", "Kowalska", 1300124);
+        var course = Course.create("Sieci");
+        var hits = IdentityMaps.keys().stream().mapToLong(IdentityMaps.Key::hits).sum();
+
+        // When
+        var byId = Student.findById(student.get().id());
+        var byIndex = Student.findByIndexNumber(1300124);
+        var foundCourse = Course.findById(course.get().id());
+
+        QueryExecutor.delete("DELETE FROM student WHERE id = ?", student.get().id());
+        var deleted = Student.findByIndexNumber(1300124);
+
+        // Then
+        assertSame(student.get(), byId.get());
+        assertSame(student.get(), byIndex.get());
+        assertSame(course.get(), foundCourse.get());
+        assertEquals(hits + 3, IdentityMaps.keys().stream().mapToLong(IdentityMaps.Key::hits).sum());
+        assertFalse(deleted.isPresent());
+    }
+
+    @Test
+    public void sessionIdentityMapTest() {
+        // Given
+        var student = Student.create("Kasia", "Kowalska", 1400124);
+        IdentityMaps.configure(IdentityMaps.Scope.SESSION, IdentityMaps.DEFAULT_CAPACITY);
+        try {
+            // When
+            var outsideSession1 = Student.findById(student.get().id());
+            var outsideSession2 = Student.findById(student.get().id());
+            IdentityMaps.openSession();
+            var inSession1 = Student.findById(student.get().id());
+            var inSession2 = Student.findById(student.get().id());
+            IdentityMaps.closeSession();
+
+            // Then
+            assertEquals(outsideSession1.get(), outsideSession2.get());
+            assertNotSame(outsideSession1.get(), outsideSession2.get());
+            assertSame(inSession1.get(), inSession2.get());
+        } finally {
+            IdentityMaps.configure(IdentityMaps.Scope.GLOBAL, IdentityMaps.DEFAULT_CAPACITY);
+        }
+    }
+
+    @Test
+    public void streamStudentsTest() throws SQLException {
+        // Given
+        var course = Course.create("Roster");
+        for (int index = 1600000; index < 1600010; index++) {
+            course.get().enrollStudent(Student.create("Jan", "Nowak", index).get());
+        }
+        int idleReaders = ConnectionProvider.statistics().idleReaders();
+
+        // When
+        long counted;
+        Optional<Student> first;
+        try (var students = course.get().streamStudents()) {
+            counted = students.filter(s -> s.indexNumber() % 2 == 0).count();
+        }
+        try (var students = course.get().streamStudents()) {
+            first = students.findFirst();
+            assertEquals(idleReaders - 1, ConnectionProvider.statistics().idleReaders());
+        }
+        long grades;
+        try (var courseGrades = Grade.streamForCourse(course.get())) {
+            grades = courseGrades.count();
+        }
+
+        // Then
+        assertEquals(5, counted);
+        checkStudent(first);
+        assertEquals(0, grades);
+        assertEquals(idleReaders, ConnectionProvider.statistics().idleReaders());
+    }
+
+    @Test
+    public void queryMetricsTest() {
+        // Given
+        var student = Student.create("Adam", "Paciaciak", 1700125);
+        var course = Course.create("Metryki");
+        course.get().enrollStudent(student.get());
+        String rosterSql = "SELECT s.* FROM student_course sc " +
+                "INNER JOIN student s on s.id = sc.student_id " +
+                "WHERE sc.course_id = (?)";
+        QueryMetrics.reset();
+
+        // When
+        course.get().studentList();
+        QueryMetrics.enable();
+        try {
+            course.get().studentList();
+            course.get().studentList();
+        } finally {
+            QueryMetrics.disable();
+        }
+        var statistics = QueryMetrics.statistics(rosterSql);
+
+        // Then
+        assertEquals(2, statistics.calls());
+        assertEquals(2, statistics.rows());
+        assertTrue(statistics.p50Nanos() > 0);
+        assertTrue(statistics.maxNanos() > 0);
+        assertTrue(QueryMetrics.dump().contains(rosterSql));
+    }
+
+    @Test
+    public void schemaMigrationTest() throws SQLException {
+        // When
+        SchemaManager.migrate();
+
+        // Then
+        var migrations = SchemaManager.migrations();
+        assertEquals(migrations.get(migrations.size() - 1).version(), SchemaManager.currentVersion());
+    }
+
+    @Test
+    public void queryPlanAdvisorTest() throws SQLException {
+        // Given
+        var course = Course.create("Plany");
+        course.get().studentList();
+        String scanningSql = "SELECT * FROM grade WHERE grade > ?";
+        String coveringSql = "SELECT g.course_id FROM grade AS g";
+        QueryPlanAdvisor.register(scanningSql);
+        QueryPlanAdvisor.register(coveringSql);
+
+        // When
+        var plans = QueryPlanAdvisor.analyze();
+        var scans = QueryPlanAdvisor.fullTableScans();
+
+        // Then
+        var rosterPlan = plans.stream().filter(p -> p.sql().contains("student_course")).findFirst();
+        assertTrue(rosterPlan.isPresent());
+        assertFalse(rosterPlan.get().scannedTables().contains("student_course"));
+        assertTrue(scans.stream().anyMatch(p -> p.sql().equals(scanningSql) && p.scannedTables().contains("grade")));
+        var coveringPlan = plans.stream().filter(p -> p.sql().equals(coveringSql)).findFirst().get();
+        assertTrue(coveringPlan.steps().get(0).contains(" AS g USING COVERING INDEX"));
+        assertFalse(coveringPlan.hasFullTableScan());
+    }
+
     @Test
     public void gradeStudentTest() {
         // When
@@ -207,6 +398,703 @@ public class ActiveRecordTest {
         assertEquals(Float.compare(4.0f, report.get(course2.get())), 0);
     }
 
+    @Test
+    public void createAllStudentsTest() {
+        // When
+        var students = Student.createAll(List.of(
+                Student.draft("Adam", "Kowalski", 1100122),
+                Student.draft("Jan", "Nowak", 1100123),
+                Student.draft("Kasia", "Kowalska", 1100124)
+        ), 2);
+
+        // Then
+        assertEquals(3, students.size());
+        for (Student student : students) {
+            checkStudent(Optional.of(student));
+            assertEquals(student, Student.findById(student.id()).get());
+        }
+        assertEquals(students.get(2), Student.findByIndexNumber(1100124).get());
+    }
+
+    @Test
+    public void createAllCoursesTest() {
+        // When
+        var courses = Course.createAll(List.of("Algebra", "Analiza"));
+        var redundantCourses = Course.createAll(List.of("Fizyka", "Algebra"));
+
+        // Then
+        assertEquals(2, courses.size());
+        for (Course course : courses) {
+            checkCourse(Optional.of(course));
+            assertEquals(course, Course.findById(course.id()).get());
+        }
+        assertTrue(redundantCourses.isEmpty());
+    }
+
+    @Test
+    public void gradeAllTest() {
+        // When
+        var student = Student.create("Kasia", "Kowalska", 1200124);
+        var course = Course.create("Statystyka");
+
+        var grades = Grade.gradeAll(List.of(
+                Grade.entry(student.get(), course.get(), 3.0f),
+                Grade.entry(student.get(), course.get(), 4.5f)
+        ));
+
+        // Then
+        assertEquals(2, grades.size());
+        assertNotEquals(grades.get(0).id(), grades.get(1).id());
+        assertEquals(Float.compare(4.5f, grades.get(1).grade()), 0);
+    }
+
+    @Test
+    public void createReportsTest() {
+        // When
+        var student1 = Student.create("Kasia", "Kowalska", 1500124);
+        var student2 = Student.create("Adam", "Kowalski", 1500125);
+        var student3 = Student.create("Jan", "Nowak", 1500126);
+        var course1 = Course.create("Bazy 3");
+        var course2 = Course.create("Bazy 4");
+
+        Grade.gradeStudent(student1.get(), course1.get(), 5.0f);
+        Grade.gradeStudent(student1.get(), course1.get(), 4.0f);
+        Grade.gradeStudent(student1.get(), course2.get(), 3.0f);
+        Grade.gradeStudent(student2.get(), course2.get(), 2.0f);
+        Grade.gradeStudent(student2.get(), course2.get(), 4.0f);
+
+        var reports = Student.createReports(List.of(student1.get(), student2.get(), student3.get()));
+
+        // Then
+        assertEquals(3, reports.size());
+        assertEquals(Map.of(course1.get(), 4.5f, course2.get(), 3.0f), reports.get(student1.get()));
+        assertEquals(Map.of(course2.get(), 3.0f), reports.get(student2.get()));
+        assertTrue(reports.get(student3.get()).isEmpty());
+        assertEquals(student1.get().createReport(), reports.get(student1.get()));
+    }
+
+    @Test
+    public void studentPagesTest() throws SQLException {
+        // Given
+        var course = Course.create("Wyklad");
+        var students = Student.createAll(List.of(
+                Student.draft("A", "A", 1800124), Student.draft("B", "B", 1800125), Student.draft("C", "C", 1800126),
+                Student.draft("D", "D", 1800127), Student.draft("E", "E", 1800128)));
+        students.forEach(s -> course.get().enrollStudent(s));
+
+        // When
+        var firstPage = course.get().studentList(0, 2);
+        var secondPage = course.get().studentList(firstPage.get(1).id(), 2);
+        var pages = new ArrayList<List<Student>>();
+        course.get().studentPages(2).forEach(pages::add);
+
+        // Then
+        assertEquals(students.subList(0, 2), firstPage);
+        assertEquals(students.subList(2, 4), secondPage);
+        assertEquals(List.of(students.subList(0, 2), students.subList(2, 4), students.subList(4, 5)), pages);
+        assertTrue(course.get().studentList(students.get(4).id(), 2).isEmpty());
+
+        var plan = QueryPlanAdvisor.analyze().stream().filter(p -> p.sql().contains("LIMIT")).findFirst();
+        assertTrue(plan.isPresent());
+        assertFalse(plan.get().hasFullTableScan());
+        assertTrue(plan.get().steps().stream().noneMatch(step -> step.contains("TEMP B-TREE")));
+    }
+
+    @Test
+    public void asyncFindersTest() {
+        // Given
+        var student = Student.create("Kasia", "Kowalska", 1900124);
+        var course = Course.create("Asynchroniczne");
+        course.get().enrollStudent(student.get());
+        Grade.gradeStudent(student.get(), course.get(), 5.0f);
+
+        // When
+        var foundStudent = AsyncFinders.studentByIndexNumber(1900124);
+        var roster = AsyncFinders.studentList(course.get());
+        var report = AsyncFinders.report(student.get());
+        var missing = AsyncQueryExecutor.queryForObject("SELECT * FROM nonexistent", rs -> rs.getInt(1));
+        CompletableFuture.allOf(foundStudent, roster, report).join();
+
+        // Then
+        assertEquals(student.get(), foundStudent.join().get());
+        assertEquals(List.of(student.get()), roster.join());
+        assertEquals(Map.of(course.get(), 5.0f), report.join());
+        var error = assertThrows(CompletionException.class, missing::join);
+        assertTrue(error.getCause() instanceof SQLException);
+        assertEquals(0, AsyncQueryExecutor.inFlight());
+    }
+
+    @Test
+    public void asyncSubmissionOverLimitFailsAtOnceTest() {
+        // Given
+        AsyncQueryExecutor.configure(1, 1);
+        var release = new CompletableFuture<Void>();
+        try {
+            var running = AsyncQueryExecutor.supply(release::join);
+
+            // When
+            long started = System.nanoTime();
+            var rejected = AsyncQueryExecutor.supply(() -> 1);
+            long waitedMillis = (System.nanoTime() - started) / 1_000_000;
+
+            // Then
+            assertTrue(waitedMillis < ConnectionProvider.settings().checkoutTimeoutMillis());
+            var error = assertThrows(CompletionException.class, rejected::join);
+            assertTrue(error.getCause() instanceof RejectedExecutionException);
+            assertEquals(1, AsyncQueryExecutor.inFlight());
+            release.complete(null);
+            running.join();
+            assertEquals(0, AsyncQueryExecutor.inFlight());
+        } finally {
+            release.complete(null);
+            AsyncQueryExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void multiGetTest() {
+        // Given
+        var drafts = new ArrayList<Student.Draft>();
+        var indexNumbers = new ArrayList<Integer>();
+        for (int i = 0; i < 1200; i++) {
+            drafts.add(Student.draft("Imie" + i, "Nazwisko" + i, 2000000 + i));
+            indexNumbers.add(2000000 + i);
+        }
+        var students = Student.createAll(drafts);
+        var course1 = Course.create("Multi 1");
+        var course2 = Course.create("Multi 2");
+
+        // When
+        var byIndex = Student.findByIndexNumbers(indexNumbers);
+        var byId = Student.findByIds(List.of(students.get(0).id(), students.get(1199).id(), Integer.MAX_VALUE));
+        var courses = Course.findByIds(List.of(course1.get().id(), course2.get().id()));
+
+        // Then
+        assertEquals(1200, byIndex.size());
+        assertEquals(students.get(600), byIndex.get(2000600));
+        assertEquals(Map.of(students.get(0).id(), students.get(0), students.get(1199).id(), students.get(1199)), byId);
+        assertEquals(Map.of(course1.get().id(), course1.get(), course2.get().id(), course2.get()), courses);
+        assertTrue(Student.findByIds(List.of()).isEmpty());
+    }
+
+    @Test
+    public void multiGetBatchesRelationsTest() {
+        // Given
+        var course = Course.create("Multi relacje");
+        var indexNumbers = List.of(2000100, 2000101, 2000102);
+        for (int indexNumber : indexNumbers) {
+            var student = Student.create("Adam", "Paciaciak", indexNumber);
+            course.get().enrollStudent(student.get());
+            Grade.gradeStudent(student.get(), course.get(), 4.0f);
+        }
+        IdentityMaps.invalidateAll();
+        QueryMetrics.reset();
+
+        // When
+        Map<Integer, Student> students;
+        QueryMetrics.enable();
+        try {
+            students = Student.findByIndexNumbers(indexNumbers);
+            students.values().forEach(Student::courses);
+            students.values().forEach(Student::grades);
+        } finally {
+            QueryMetrics.disable();
+        }
+
+        // Then
+        assertEquals(3, students.size());
+        assertEquals(1, relationLoads("WHERE sc.student_id IN ("));
+        assertEquals(1, relationLoads("FROM grade WHERE student_id IN ("));
+    }
+
+    @Test
+    public void writeBehindGradesTest() {
+        // Given
+        var student = Student.create("Kasia", "Kowalska", 2100124);
+        var course = Course.create("Egzamin");
+        Grade.enableWriteBehind(50, 64);
+
+        try {
+            // When
+            var futures = new ArrayList<CompletableFuture<Grade>>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(Grade.gradeStudentAsync(student.get(), course.get(), i % 2 == 0 ? 3.0f : 5.0f));
+            }
+            boolean graded = Grade.gradeStudent(student.get(), course.get(), 4.0f);
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+
+            // Then
+            assertTrue(graded);
+            assertEquals(200, futures.stream().map(f -> f.join().id()).distinct().count());
+            var statistics = Grade.writeBehindStatistics().get();
+            assertEquals(201, statistics.written());
+            assertEquals(0, statistics.queueDepth());
+            assertTrue(statistics.flushes() < 201);
+            assertEquals(Map.of(course.get(), 4.0f), student.get().createReport());
+        } finally {
+            Grade.disableWriteBehind();
+        }
+        assertFalse(Grade.writeBehindStatistics().isPresent());
+    }
+
+    @Test
+    public void writeBehindQueueIsBoundedTest() throws SQLException {
+        // Given
+        ConnectionProvider.init("jdbc:sqlite:active_record_test.db",
+                PoolSettings.defaults().withCheckoutTimeoutMillis(200));
+        try {
+            var student = Student.create("Kasia", "Kowalska", 2100125);
+            var course = Course.create("Zatory");
+            Grade.enableWriteBehind(10, 1, 2);
+            var futures = new ArrayList<CompletableFuture<Grade>>();
+
+            // When
+            var writer = ConnectionProvider.writer();
+            try {
+                // the flusher takes the first grade and waits for the writer, the next two fill the queue
+                for (int i = 0; i < 4; i++) {
+                    futures.add(Grade.gradeStudentAsync(student.get(), course.get(), 4.0f));
+                }
+            } finally {
+                writer.close();
+            }
+
+            // Then
+            var rejected = assertThrows(CompletionException.class, () -> futures.get(3).join());
+            assertTrue(rejected.getCause() instanceof RejectedExecutionException);
+            assertTrue(futures.get(1).join().id() > 0);
+            assertTrue(futures.get(2).join().id() > 0);
+            var statistics = Grade.writeBehindStatistics().get();
+            assertEquals(2, statistics.queueCapacity());
+            assertEquals(1, statistics.rejected());
+            assertTrue(statistics.maxQueueDepth() <= 2);
+        } finally {
+            Grade.disableWriteBehind();
+            ConnectionProvider.init("jdbc:sqlite:active_record_test.db");
+        }
+    }
+
+    @Test
+    public void inTransactionCommitsOnceTest() throws SQLException {
+        // Given
+        var student = Student.create("Kasia", "Kowalska", 2200124);
+        var course = Course.create("Transakcje");
+        var notifications = new ArrayList<String>();
+        TableChangeListener listener = (table, operation) -> notifications.add(table);
+        QueryExecutor.addTableChangeListener(listener);
+
+        try {
+            // When
+            boolean enrolledAndGraded = QueryExecutor.inTransaction(() -> {
+                boolean enrolled = course.get().enrollStudent(student.get());
+                boolean graded = Grade.gradeStudent(student.get(), course.get(), 4.5f);
+                assertTrue(notifications.isEmpty());
+                return enrolled && graded;
+            });
+
+            // Then
+            assertTrue(enrolledAndGraded);
+            assertFalse(QueryExecutor.isInTransaction());
+            assertEquals(List.of("student_course", "grade"), notifications);
+            assertTrue(ConnectionProvider.getConnection().getAutoCommit());
+        } finally {
+            QueryExecutor.removeTableChangeListener(listener);
+        }
+    }
+
+    @Test
+    public void failedBatchLeavesNoRowsInTransactionTest() throws SQLException {
+        // When
+        var created = QueryExecutor.inTransaction(() -> {
+            var duplicated = Student.createAll(List.of(
+                    Student.draft("Jan", "Nowak", 2200130),
+                    Student.draft("Ola", "Nowak", 2200131),
+                    Student.draft("Ewa", "Nowak", 2200130)));
+            assertTrue(duplicated.isEmpty());
+            return Student.create("Piotr", "Nowak", 2200132);
+        });
+
+        // Then
+        assertTrue(created.isPresent());
+        IdentityMaps.invalidateAll();
+        assertFalse(Student.findByIndexNumber(2200130).isPresent());
+        assertFalse(Student.findByIndexNumber(2200131).isPresent());
+        assertEquals(created.get(), Student.findByIndexNumber(2200132).get());
+    }
+
+    @Test
+    public void inTransactionRollsBackTest() throws SQLException {
+        // Given
+        var course = Course.create("Wycofane");
+        String insertSql = "INSERT INTO student (first_name, last_name, index_number) VALUES (?, ?, ?)";
+
+        // When
+        assertThrows(SQLException.class, () -> QueryExecutor.inTransaction(() -> {
+            QueryExecutor.create(insertSql, "Jan", "Nowak", 2300124);
+            QueryExecutor.create(insertSql, "Jan", "Nowak", 2300124);
+            return null;
+        }));
+        QueryExecutor.inTransaction(() -> {
+            QueryExecutor.create(insertSql, "Adam", "Kowalski", 2300125);
+            try {
+                QueryExecutor.inTransaction(() -> {
+                    QueryExecutor.create(insertSql, "Ola", "Nowak", 2300126);
+                    QueryExecutor.create(insertSql, "Ola", "Nowak", 2300125);
+                    return null;
+                });
+            } catch (SQLException e) {
+                // only the nested savepoint is undone
+            }
+            return null;
+        });
+        assertThrows(SQLException.class, () -> QueryExecutor.executeUpdate(
+                List.of("DELETE FROM course WHERE id = ?", "INSERT INTO nonexistent VALUES (?)"),
+                List.of(List.of(course.get().id()), List.of(1))));
+
+        // Then
+        assertFalse(Student.findByIndexNumber(2300124).isPresent());
+        assertTrue(Student.findByIndexNumber(2300125).isPresent());
+        assertFalse(Student.findByIndexNumber(2300126).isPresent());
+        assertTrue(Course.findById(course.get().id()).isPresent());
+        assertTrue(ConnectionProvider.getConnection().getAutoCommit());
+    }
+
+    @Test
+    public void typedParameterBindingTest() throws SQLException {
+        // When
+        var row = QueryExecutor.queryForObject(
+                "SELECT ? IS NULL, ?, ?, typeof(?), date(?), datetime(?), ?",
+                rs -> List.of(rs.getBoolean(1), rs.getInt(2), rs.getLong(3), rs.getString(4), rs.getString(5),
+                        rs.getString(6), rs.getDouble(7)),
+                null, true, 1L << 40, 2.5, LocalDate.of(2024, 1, 31), LocalDateTime.of(2024, 1, 31, 10, 15, 30),
+                0.1).get();
+        var found = QueryExecutor.queryForObject("SELECT ?", rs -> rs.getString(1), ps -> ps.setString(1, "typed"));
+        var dateTime = LocalDateTime.of(2024, 1, 31, 10, 15, 30, 250_000_000);
+        var temporal = QueryExecutor.queryForObject("SELECT ?, ?, ?",
+                rs -> List.of(rs.getString(1), rs.getString(2), rs.getString(3)),
+                dateTime, Timestamp.valueOf(dateTime), Time.valueOf(dateTime.toLocalTime())).get();
+
+        // Then
+        assertEquals(List.of(true, 1, 1L << 40, "real", "2024-01-31", "2024-01-31 10:15:30", 0.1), row);
+        assertEquals("typed", found.get());
+        assertEquals(List.of("2024-01-31 10:15:30.250", "2024-01-31 10:15:30.250", "10:15:30"), temporal);
+        assertThrows(SQLException.class, () -> QueryExecutor.queryForObject("SELECT ?", rs -> 1, new Object()));
+    }
+
+    @Test
+    public void resultCacheTest() throws SQLException {
+        // Given
+        var student = Student.create("Kasia", "Kowalska", 2400124);
+        var course = Course.create("Cache");
+        Grade.gradeStudent(student.get(), course.get(), 3.0f);
+        QueryExecutor.enableResultCache(2, 60_000);
+
+        try {
+            // When
+            var first = student.get().createReport();
+            var second = student.get().createReport();
+            Grade.gradeStudent(student.get(), course.get(), 5.0f);
+            var afterWrite = student.get().createReport();
+            QueryExecutor.read("SELECT 1 FROM course WHERE id = ?", 1);
+            QueryExecutor.read("SELECT 2 FROM course WHERE id = ?", 1);
+
+            // Then
+            assertEquals(Map.of(course.get(), 3.0f), first);
+            assertEquals(first, second);
+            assertEquals(Map.of(course.get(), 4.0f), afterWrite);
+            var statistics = QueryExecutor.resultCacheStatistics().get();
+            assertEquals(1, statistics.hits());
+            assertEquals(1, statistics.invalidations());
+            assertEquals(1, statistics.evictions());
+            assertEquals(2, statistics.size());
+        } finally {
+            QueryExecutor.disableResultCache();
+        }
+        assertFalse(QueryExecutor.resultCacheStatistics().isPresent());
+    }
+
+    @Test
+    public void changeFeedTest() throws SQLException {
+        // Given
+        var batches = new ArrayList<List<ChangeEvent>>();
+        var course = Course.create("Zmiany");
+
+        // When
+        var subscription = ChangeFeed.subscribe(batches::add);
+        try {
+            var student = Student.create("Kasia", "Kowalska", 2500124);
+            QueryExecutor.inTransaction(() -> {
+                course.get().enrollStudent(student.get());
+                Grade.gradeStudent(student.get(), course.get(), 4.0f);
+                try {
+                    QueryExecutor.inTransaction(() -> {
+                        Grade.gradeStudent(student.get(), course.get(), 2.0f);
+                        throw new SQLException("undone");
+                    });
+                } catch (SQLException e) {
+                    // the nested grade is rolled back and never published
+                }
+                return null;
+            });
+        } finally {
+            subscription.close();
+        }
+        Student.create("Adam", "Kowalski", 2500125);
+
+        // Then
+        assertEquals(2, batches.size());
+        var created = batches.get(0).get(0);
+        assertEquals(Student.TABLE_NAME, created.table());
+        assertEquals(TableChangeListener.Operation.INSERT, created.operation());
+        assertEquals(2500124, created.values().get("index_number"));
+        assertEquals(List.of("student_course", "grade"),
+                batches.get(1).stream().map(ChangeEvent::table).collect(Collectors.toList()));
+        assertEquals(4.0f, batches.get(1).get(1).values().get("grade"));
+    }
+
+    @Test
+    public void batchWithConflictClauseHasNoIdsTest() throws SQLException {
+        // Given
+        var batches = new ArrayList<List<ChangeEvent>>();
+        var course = Course.create("Duplikaty");
+        var enrolled = Student.create("Kasia", "Kowalska", 2500126);
+        var student = Student.create("Adam", "Kowalski", 2500127);
+        course.get().enrollStudent(enrolled.get());
+        var rows = List.<Object[]>of(new Object[] {enrolled.get().id(), course.get().id()},
+                new Object[] {student.get().id(), course.get().id()});
+
+        // When
+        int[] ids;
+        var subscription = ChangeFeed.subscribe(batches::add);
+        try {
+            ids = QueryExecutor.executeBatch(
+                    "INSERT OR IGNORE INTO student_course (student_id, course_id) VALUES (?, ?)", rows);
+        } finally {
+            subscription.close();
+        }
+
+        // Then
+        assertArrayEquals(new int[] {-1, -1}, ids);
+        assertEquals(1, batches.size());
+        assertEquals(1, batches.get(0).size());
+        assertEquals(-1, batches.get(0).get(0).id());
+        assertEquals(2, course.get().studentList().size());
+    }
+
+    @Test
+    public void studentSearchTest() throws SQLException {
+        // Given
+        var kasia = Student.create("Kasia", "Kowalska", 1800124);
+        var adam = Student.create("Adam", "Kowalski", 1800125);
+        var kowal = Student.create("Kowal", "Kowalczyk", 1800126);
+        var jan = Student.create("Jan", "Nowak", 1800127);
+
+        // When
+        var byPrefix = Student.search("kowal", 10);
+        var byTwoWords = Student.search("Ja NOW", 10);
+        var limited = Student.search("kow", 2);
+        var operatorsOnly = Student.search("\"*-", 10);
+        QueryExecutor.update("UPDATE student SET last_name = ? WHERE id = ?", "Nowicka", kasia.get().id());
+        QueryExecutor.delete("DELETE FROM student WHERE id = ?", adam.get().id());
+        IdentityMaps.invalidateAll();
+        var afterWrites = Student.search("nowi", 10);
+        SchemaManager.rebuildSearchIndex();
+        var afterRebuild = Student.search("kow", 10);
+
+        // Then
+        assertEquals(3, byPrefix.size());
+        assertEquals(kowal.get(), byPrefix.get(0));
+        assertEquals(List.of(jan.get()), byTwoWords);
+        assertEquals(2, limited.size());
+        assertTrue(operatorsOnly.isEmpty());
+        assertEquals(1, afterWrites.size());
+        assertEquals("Nowicka", afterWrites.get(0).lastName());
+        assertEquals(List.of(kowal.get()), afterRebuild);
+    }
+
+    @Test
+    public void singleWriterTest() throws Exception {
+        // Given
+        var course = Course.create("Kolejka");
+        QueryExecutor.enableSingleWriter(64, 16);
+        try {
+            // When
+            var writes = new ArrayList<CompletableFuture<Boolean>>();
+            for (int i = 0; i < 40; i++) {
+                int indexNumber = 1900100 + i % 30;
+                writes.add(CompletableFuture.supplyAsync(() -> Student.create("Kasia", "Kowalska", indexNumber)
+                        .map(student -> course.get().enrollStudent(student))
+                        .orElse(false)));
+            }
+            var enrolled = writes.stream().map(CompletableFuture::join).filter(ok -> ok).count();
+            var inTransaction = QueryExecutor.inTransaction(() -> QueryExecutor.isInTransaction());
+            var statistics = QueryExecutor.singleWriterStatistics().get();
+
+            // Then
+            assertEquals(30, enrolled);
+            assertEquals(30, course.get().studentList().size());
+            assertTrue(inTransaction);
+            assertEquals(statistics.submitted(), statistics.completed() + statistics.failed());
+            assertEquals(10, statistics.failed());
+            assertTrue(statistics.transactions() > 0);
+            assertTrue(statistics.transactions() <= statistics.submitted());
+            assertEquals(0, statistics.rejected());
+        } finally {
+            QueryExecutor.disableSingleWriter();
+        }
+        assertFalse(QueryExecutor.singleWriterStatistics().isPresent());
+    }
+
+    @Test
+    public void courseStatsTest() throws SQLException {
+        // Given
+        var student = Student.create("Kasia", "Kowalska", 2000124);
+        var course = Course.create("Statystyka");
+        var other = Course.create("Inna");
+        var empty = course.get().stats();
+        Grade.gradeStudent(student.get(), course.get(), 3.0f);
+        Grade.gradeStudent(student.get(), course.get(), 4.5f);
+        Grade.gradeStudent(student.get(), course.get(), 4.5f);
+        Grade.gradeStudent(student.get(), course.get(), 5.0f);
+        Grade.gradeStudent(student.get(), other.get(), 2.0f);
+
+        // When
+        var stats = course.get().stats();
+        QueryExecutor.delete("DELETE FROM grade WHERE course_id = ? AND grade = ?", course.get().id(), 5.0f);
+        QueryExecutor.update("UPDATE grade SET grade = ? WHERE course_id = ? AND grade = ?", 2.0f, course.get().id(), 3.0f);
+        var afterWrites = course.get().stats();
+
+        // Then
+        assertEquals(0, empty.count());
+        assertEquals(4, stats.count());
+        assertEquals(17.0, stats.sum(), 0.001);
+        assertEquals(4.25, stats.average(), 0.001);
+        assertEquals(3.0f, stats.min());
+        assertEquals(5.0f, stats.max());
+        assertEquals(Map.of(3.0f, 1L, 4.5f, 2L, 5.0f, 1L), stats.histogram());
+        assertEquals(3, afterWrites.count());
+        assertEquals(2.0f, afterWrites.min());
+        assertEquals(4.5f, afterWrites.max());
+        assertEquals(Map.of(2.0f, 1L, 4.5f, 2L), afterWrites.histogram());
+        assertEquals(1, other.get().stats().count());
+    }
+
+    @Test
+    public void lazyRelationsTest() {
+        // Given
+        var course = Course.create("Relacje");
+        var other = Course.create("Relacje 2");
+        for (int i = 0; i < 3; i++) {
+            var student = Student.create("Adam", "Paciaciak", 1800120 + i);
+            course.get().enrollStudent(student.get());
+            Grade.gradeStudent(student.get(), course.get(), 3.0f + i);
+        }
+        IdentityMaps.invalidateAll();
+        var reloaded = Course.findById(course.get().id()).get();
+        QueryMetrics.reset();
+
+        // When
+        List<Student> students;
+        QueryMetrics.enable();
+        try {
+            students = reloaded.students();
+            for (Student student : students) {
+                assertEquals(List.of(reloaded), student.courses());
+                assertEquals(1, student.grades().size());
+            }
+            students.forEach(Student::courses);
+            students.forEach(Student::grades);
+        } finally {
+            QueryMetrics.disable();
+        }
+        var first = students.get(0);
+        other.get().enrollStudent(first);
+        Grade.gradeStudent(first, other.get(), 5.0f);
+
+        // Then
+        assertEquals(3, students.size());
+        assertEquals(students, reloaded.students());
+        assertEquals(1, relationLoads("WHERE sc.course_id IN ("));
+        assertEquals(1, relationLoads("WHERE sc.student_id IN ("));
+        assertEquals(1, relationLoads("FROM grade WHERE student_id IN ("));
+        assertEquals(List.of(reloaded, other.get()), first.courses());
+        assertEquals(2, first.grades().size());
+        assertEquals(5.0f, first.grades().get(1).grade(), 0.001f);
+    }
+
+    @Test
+    public void relationsSeeWritesMadeOutsideTheModelTest() throws SQLException {
+        // Given
+        var student = Student.create("Adam", "Paciaciak", 1800130);
+        var course = Course.create("Relacje 3");
+        course.get().enrollStudent(student.get());
+        var gradesBefore = student.get().grades();
+        var coursesBefore = student.get().courses();
+
+        // When
+        Grade.gradeAll(List.of(Grade.entry(student.get(), course.get(), 4.0f)));
+        QueryExecutor.create("INSERT INTO grade (grade, student_id, course_id) VALUES (?, ?, ?)",
+                5.0f, student.get().id(), course.get().id());
+        QueryExecutor.delete("DELETE FROM student_course WHERE student_id = ?", student.get().id());
+
+        // Then
+        assertTrue(gradesBefore.isEmpty());
+        assertEquals(List.of(course.get()), coursesBefore);
+        assertEquals(2, student.get().grades().size());
+        assertTrue(student.get().courses().isEmpty());
+        assertTrue(course.get().students().isEmpty());
+    }
+
+    @Test
+    public void bulkImportTest() throws Exception {
+        // Given
+        var importer = new BulkImporter(2);
+
+        // When
+        var students = importer.importStudents(new StringReader(
+                "first_name,last_name,index_number\n" +
+                "Kasia,Kowalska,1700124\n" +
+                "Adam,Kowalski,1700125\n" +
+                "Jan,Nowak,1700125\n" +
+                "\"Nowak, Jr.\",Jan,abc\n" +
+                "Ola,Nowak,1700126\n"));
+        var courses = importer.importCourses(new StringReader("name\nImport 1\nImport 2\n"));
+        var enrollments = importer.importEnrollments(new StringReader(
+                "index_number,course_name\n1700124,Import 1\n1700125,Import 1\n1700125,Import 1\n1700999,Import 1\n"));
+        var grades = importer.importGrades(new StringReader(
+                "index_number,course_name,grade\n1700124,Import 1,4.5\n1700124,Import 1,3.5\n1700125,Nope,5.0\n"));
+        var enrollmentsAgain = new BulkImporter(2).importEnrollments(new StringReader(
+                "index_number,course_name\n1700124,Import 1\n1700126,Import 2\n"));
+
+        // Then
+        assertEquals(5, students.rowsRead());
+        assertEquals(3, students.rowsImported());
+        assertEquals(2, students.rowsRejected());
+        assertEquals(2, courses.rowsImported());
+        assertEquals(2, enrollments.rowsImported());
+        assertEquals(2, enrollments.rowsRejected());
+        assertEquals(0, enrollments.rowsSkipped());
+        assertEquals(1, enrollmentsAgain.rowsImported());
+        assertEquals(1, enrollmentsAgain.rowsSkipped());
+        assertEquals(0, enrollmentsAgain.rowsRejected());
+        assertEquals(2, grades.rowsImported());
+        assertEquals(1, grades.rowsRejected());
+
+        var student = Student.findByIndexNumber(1700124);
+        checkStudent(student);
+        var courseId = QueryExecutor.queryForObject("SELECT id FROM course WHERE name = ?", rs -> rs.getInt(1), "Import 1");
+        var course = Course.findById(courseId.get());
+        assertEquals(2, course.get().studentList().size());
+        assertEquals(Map.of(course.get(), 4.0f), student.get().createReport());
+    }
+
+    private long relationLoads(final String sqlFragment) {
+        return QueryMetrics.snapshot().stream()
+                .filter(statistics -> statistics.sql().contains(sqlFragment))
+                .mapToLong(statistics -> statistics.calls())
+                .sum();
+    }
+
     private void checkStudent(final Optional<Student> student) {
         assertTrue(student.isPresent());
         student.ifPresent(s -> {
@@ -0,0 +1,152 @@
+package pl.edu.agh.iisg.to.connection;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionPoolTest {
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        pool = new ConnectionPool("jdbc:sqlite:connection_pool_test.db",
+                PoolSettings.defaults().withReaders(2).withCheckoutTimeoutMillis(100).withStatementCacheSize(2));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void readersAreReturnedToPoolTest() throws SQLException {
+        // When
+        try (var first = pool.acquireReader(); var second = pool.acquireReader()) {
+            assertFalse(first.isWriter());
+            assertNotSame(first.connection(), second.connection());
+            assertEquals(0, pool.statistics().idleReaders());
+        }
+
+        // Then
+        var statistics = pool.statistics();
+        assertEquals(2, statistics.idleReaders());
+        assertEquals(2, statistics.readerCheckouts());
+    }
+
+    @Test
+    public void readerCheckoutTimesOutTest() throws SQLException {
+        // When
+        try (var first = pool.acquireReader(); var second = pool.acquireReader()) {
+            // Then
+            assertNotSame(first.connection(), second.connection());
+            assertThrows(SQLTimeoutException.class, pool::acquireReader);
+        }
+        assertEquals(1, pool.statistics().timeouts());
+    }
+
+    @Test
+    public void writerIsExclusiveAcrossThreadsTest() throws SQLException {
+        // When
+        try (var writer = pool.acquireWriter()) {
+            var otherThread = CompletableFuture.supplyAsync(() -> {
+                try {
+                    pool.acquireWriter().close();
+                    return true;
+                } catch (SQLException e) {
+                    return false;
+                }
+            });
+
+            // Then
+            assertFalse(otherThread.join());
+            try (var nestedRead = pool.acquireReader()) {
+                assertTrue(nestedRead.isWriter());
+                assertSame(writer.connection(), nestedRead.connection());
+            }
+        }
+    }
+
+    @Test
+    public void statementsAreReusedPerConnectionTest() throws SQLException {
+        // Given
+        String hotQuery = "SELECT 1";
+
+        // When
+        try (var writer = pool.acquireWriter()) {
+            var first = writer.prepare(hotQuery);
+            var second = writer.prepare(hotQuery);
+
+            // Then
+            assertSame(first, second);
+        }
+        var statistics = pool.statementCacheStatistics();
+        assertEquals(1, statistics.hits());
+        assertEquals(1, statistics.misses());
+        assertEquals(1, statistics.preparations(hotQuery));
+    }
+
+    @Test
+    public void leastRecentlyUsedStatementIsEvictedTest() throws SQLException {
+        // When
+        try (var writer = pool.acquireWriter()) {
+            var evicted = writer.prepare("SELECT 1");
+            writer.prepare("SELECT 2");
+            writer.prepare("SELECT 3");
+
+            // Then
+            assertThrows(SQLException.class, evicted::executeQuery);
+            assertNotSame(evicted, writer.prepare("SELECT 1"));
+        }
+        assertEquals(2, pool.statementCacheStatistics().evictions());
+    }
+
+    @Test
+    public void preparationCountsAreBoundedTest() throws SQLException {
+        // When
+        try (var writer = pool.acquireWriter()) {
+            for (int i = 0; i < 10; i++) {
+                writer.prepare("SELECT " + i);
+            }
+            writer.prepare("SELECT 9");
+        }
+
+        // Then
+        var statistics = pool.statementCacheStatistics();
+        assertEquals(6, statistics.preparations().size());
+        assertEquals(0, statistics.preparations("SELECT 0"));
+        assertEquals(1, statistics.preparations("SELECT 9"));
+    }
+
+    @Test
+    public void bindingPlanIsKeptWithTheCachedStatementTest() throws SQLException {
+        // Given
+        String query = "SELECT ? + ?";
+
+        // When
+        try (var writer = pool.acquireWriter()) {
+            var ps = writer.prepare(query);
+            var plan = writer.bindingPlan(query, 1, 2);
+            plan.bind(ps, 3, 4);
+            try (var rs = ps.executeQuery()) {
+                assertTrue(rs.next());
+                assertEquals(7, rs.getInt(1));
+            }
+
+            // Then
+            writer.prepare(query);
+            assertSame(plan, writer.bindingPlan(query, 5, 6));
+            writer.prepare("SELECT 2");
+            writer.prepare("SELECT 3");
+            writer.prepare(query);
+            assertNotSame(plan, writer.bindingPlan(query, 5, 6));
+        }
+    }
+
+}
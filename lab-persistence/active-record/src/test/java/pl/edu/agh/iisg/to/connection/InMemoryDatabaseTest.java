@@ -0,0 +1,127 @@
+package pl.edu.agh.iisg.to.connection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.model.Student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryDatabaseTest {
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("in_memory_test");
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException, IOException {
+        ConnectionProvider.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void emptyInMemoryDatabaseTest() {
+        // When
+        ConnectionProvider.initInMemory(null);
+        var student = Student.create("Kasia", "Kowalska", 100);
+
+        // Then
+        assertTrue(ConnectionProvider.isInMemory());
+        assertTrue(student.isPresent());
+        assertEquals(student, Student.findByIndexNumber(100));
+        assertThrows(IllegalStateException.class, ConnectionProvider::checkpoint);
+    }
+
+    @Test
+    public void snapshotIsLoadedAndSavedTest() throws SQLException {
+        // Given
+        String file = directory.resolve("snapshot.db").toString();
+        ConnectionProvider.init("jdbc:sqlite:" + file);
+        Student.create("Kasia", "Kowalska", 100);
+        ConnectionProvider.close();
+
+        // When
+        ConnectionProvider.initInMemory(file);
+        var loaded = Student.findByIndexNumber(100);
+        Student.create("Adam", "Kowalski", 101);
+        ConnectionProvider.close();
+        ConnectionProvider.init("jdbc:sqlite:" + file);
+
+        // Then
+        assertTrue(loaded.isPresent());
+        assertFalse(ConnectionProvider.isInMemory());
+        assertTrue(Student.findByIndexNumber(100).isPresent());
+        assertTrue(Student.findByIndexNumber(101).isPresent());
+    }
+
+    @Test
+    public void readersSeeCommittedWritesTest() throws SQLException {
+        // Given
+        ConnectionProvider.initInMemory(directory.resolve("readers.db").toString());
+        Student.create("Kasia", "Kowalska", 100);
+
+        // When
+        try (var reader = ConnectionProvider.reader();
+             var statement = reader.connection().createStatement();
+             var rs = statement.executeQuery("SELECT COUNT(*) FROM student")) {
+            // Then
+            assertFalse(reader.isWriter());
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+        }
+        ConnectionProvider.checkpoint();
+        assertTrue(Files.exists(directory.resolve("readers.db")));
+    }
+
+    @Test
+    public void readersNeverSeeRolledBackWritesTest() throws Exception {
+        // Given
+        ConnectionProvider.initInMemory(null);
+        var inserted = new CountDownLatch(1);
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var writing = executor.submit(() -> QueryExecutor.inTransaction(() -> {
+                QueryExecutor.create("INSERT INTO student (first_name, last_name, index_number) VALUES (?, ?, ?)",
+                        "Kasia", "Kowalska", 100);
+                inserted.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new SQLException("rolled back");
+            }));
+            inserted.await();
+
+            // When
+            var count = QueryExecutor.queryForObject("SELECT COUNT(*) FROM student WHERE index_number = ?",
+                    rs -> rs.getInt(1), 100);
+
+            // Then
+            assertEquals(0, count.get().intValue());
+            var failure = assertThrows(ExecutionException.class, writing::get);
+            assertEquals("rolled back", failure.getCause().getMessage());
+            assertTrue(Student.findByIndexNumber(100).isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
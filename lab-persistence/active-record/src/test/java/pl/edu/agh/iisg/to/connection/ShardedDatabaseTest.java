@@ -0,0 +1,191 @@
+package pl.edu.agh.iisg.to.connection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import pl.edu.agh.iisg.to.cache.IdentityMaps;
+import pl.edu.agh.iisg.to.executor.AsyncQueryExecutor;
+import pl.edu.agh.iisg.to.executor.QueryExecutor;
+import pl.edu.agh.iisg.to.model.Course;
+import pl.edu.agh.iisg.to.model.Grade;
+import pl.edu.agh.iisg.to.model.Student;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedDatabaseTest {
+
+    private static final int SHARDS = 3;
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("sharded_test");
+        initSharded();
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException, IOException {
+        ConnectionProvider.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void studentsAreSpreadOverShardsTest() throws SQLException {
+        // Given
+        var course = Course.create("Sharding");
+        var students = new ArrayList<Student>();
+        for (int i = 0; i < 30; i++) {
+            var student = Student.create("Kasia", "Kowalska", 100 + i);
+            assertTrue(course.get().enrollStudent(student.get()));
+            assertTrue(Grade.gradeStudent(student.get(), course.get(), 3.0f + i % 3));
+            students.add(student.get());
+        }
+
+        // When
+        IdentityMaps.invalidateAll();
+        var counts = QueryExecutor.onAllShards(() -> QueryExecutor.queryForObject(
+                "SELECT COUNT(*) FROM main.student", rs -> rs.getInt(1)).get());
+        var sharedCount = QueryExecutor.queryForObject("SELECT COUNT(*) FROM student", rs -> rs.getInt(1)).get();
+        var pagedIds = new ArrayList<Integer>();
+        for (List<Student> page : course.get().studentPages(7)) {
+            page.forEach(student -> pagedIds.add(student.id()));
+        }
+
+        // Then
+        assertEquals(SHARDS, counts.size());
+        assertTrue(counts.stream().allMatch(count -> count > 0));
+        assertEquals(30, counts.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(0, sharedCount.intValue());
+        assertEquals(30, students.stream().map(Student::id).collect(Collectors.toSet()).size());
+        for (Student student : students) {
+            assertEquals(ConnectionProvider.shardOfIndexNumber(student.indexNumber()),
+                    ConnectionProvider.shardOfId(student.id()));
+            assertEquals(student, Student.findById(student.id()).get());
+            assertEquals(student, Student.findByIndexNumber(student.indexNumber()).get());
+        }
+        assertEquals(30, course.get().studentList().size());
+        assertEquals(students.stream().map(Student::id).sorted().collect(Collectors.toList()), pagedIds);
+        try (var stream = course.get().streamStudents()) {
+            assertEquals(30, stream.count());
+        }
+        assertEquals(30, course.get().stats().count());
+        assertEquals(120.0, course.get().stats().sum(), 0.001);
+        assertEquals(Map.of(course.get(), 3.0f), students.get(0).createReport());
+        assertEquals(30, Student.findByIds(students.stream().map(Student::id).collect(Collectors.toList())).size());
+        assertEquals(30, Student.search("kowal", 50).size());
+        assertEquals(Student.search("kowal", 50).subList(0, 5), Student.search("kowal", 5));
+        assertEquals(30, course.get().students().size());
+        for (Student student : course.get().students()) {
+            assertEquals(List.of(course.get()), student.courses());
+            assertEquals(1, student.grades().size());
+        }
+    }
+
+    @Test
+    public void shardsKeepTheirIdRangesAfterReopenTest() throws SQLException {
+        // Given
+        var first = Student.create("Adam", "Kowalski", 200);
+        ConnectionProvider.close();
+
+        // When
+        initSharded();
+        var ids = new HashSet<Integer>();
+        var created = Student.createAll(List.of(
+                Student.draft("Jan", "Nowak", 201),
+                Student.draft("Ola", "Nowak", 202),
+                Student.draft("Ewa", "Nowak", 203),
+                Student.draft("Piotr", "Nowak", 204)));
+        created.forEach(student -> ids.add(student.id()));
+
+        // Then
+        assertEquals(first, Student.findByIndexNumber(200));
+        assertEquals(4, ids.size());
+        for (int i = 0; i < created.size(); i++) {
+            assertEquals(201 + i, created.get(i).indexNumber());
+            assertEquals(ConnectionProvider.shardOfIndexNumber(201 + i),
+                    ConnectionProvider.shardOfId(created.get(i).id()));
+        }
+        assertThrows(IllegalStateException.class, () -> QueryExecutor.enableSingleWriter(16, 4));
+    }
+
+    @Test
+    public void resultCacheSeesSharedTableWritesTest() throws SQLException {
+        // Given
+        var course = Course.create("Sharding");
+        var sql = "SELECT name FROM " + ConnectionProvider.SHARED_SCHEMA + ".course WHERE id = ?";
+        QueryExecutor.enableResultCache(16, 60_000);
+        try {
+            // When
+            var cold = QueryExecutor.onAllShards(() -> readName(sql, course.get().id()));
+            var warm = QueryExecutor.onAllShards(() -> readName(sql, course.get().id()));
+            QueryExecutor.update("UPDATE course SET name = ? WHERE id = ?", "Sharding 2", course.get().id());
+            var renamed = QueryExecutor.onAllShards(() -> readName(sql, course.get().id()));
+            var statistics = QueryExecutor.resultCacheStatistics().get();
+
+            // Then
+            assertEquals(List.of("Sharding", "Sharding", "Sharding"), cold);
+            assertEquals(cold, warm);
+            assertEquals(List.of("Sharding 2", "Sharding 2", "Sharding 2"), renamed);
+            assertEquals(SHARDS, statistics.hits());
+            assertEquals(SHARDS, statistics.invalidations());
+        } finally {
+            QueryExecutor.disableResultCache();
+        }
+    }
+
+    @Test
+    public void shardsRejectedByAsyncExecutorRunInlineTest() throws SQLException {
+        // Given
+        var course = Course.create("Sharding");
+        for (int i = 0; i < 9; i++) {
+            course.get().enrollStudent(Student.create("Kasia", "Kowalska", 300 + i).get());
+        }
+        AsyncQueryExecutor.configure(1, 1);
+        var release = new CompletableFuture<Void>();
+        try {
+            AsyncQueryExecutor.supply(release::join);
+
+            // When
+            var shards = QueryExecutor.onAllShards(ConnectionProvider::currentShard);
+            var roster = course.get().studentList();
+
+            // Then
+            assertEquals(List.of(0, 1, 2), shards);
+            assertEquals(9, roster.size());
+        } finally {
+            release.complete(null);
+            AsyncQueryExecutor.shutdown();
+        }
+    }
+
+    private static String readName(final String sql, final int id) throws SQLException {
+        var rows = QueryExecutor.read(sql, id);
+        return rows.next() ? rows.getString(1) : null;
+    }
+
+    private void initSharded() {
+        List<String> shardFiles = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            shardFiles.add(directory.resolve("shard_" + shard + ".db").toString());
+        }
+        ConnectionProvider.initSharded(directory.resolve("shared.db").toString(), shardFiles, PoolSettings.defaults());
+    }
+}
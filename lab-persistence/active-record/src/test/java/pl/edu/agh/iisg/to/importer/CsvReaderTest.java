@@ -0,0 +1,46 @@
+package pl.edu.agh.iisg.to.importer;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CsvReaderTest {
+
+    @Test
+    public void readsQuotedFieldsAndLineBreaksTest() throws IOException {
+        // Given
+        var csv = new CsvReader(new StringReader("a,\"b, \"\"c\"\"\"\r\n\r\n\"multi\nline\",,x\n"));
+
+        // When
+        assertTrue(csv.next());
+        var first = csv.stringField(1);
+        var firstCount = csv.fieldCount();
+        assertTrue(csv.next());
+
+        // Then
+        assertEquals(2, firstCount);
+        assertEquals("b, \"c\"", first);
+        assertEquals(3, csv.fieldCount());
+        assertEquals("multi\nline", csv.stringField(0));
+        assertTrue(csv.isEmpty(1));
+        assertFalse(csv.next());
+    }
+
+    @Test
+    public void parsesNumbersInPlaceTest() throws IOException {
+        // Given
+        var csv = new CsvReader(new StringReader("-42,4.25,x1,2147483648\n"));
+
+        // When
+        assertTrue(csv.next());
+
+        // Then
+        assertEquals(-42, csv.intField(0));
+        assertEquals(Float.compare(4.25f, csv.floatField(1)), 0);
+        assertThrows(NumberFormatException.class, () -> csv.intField(2));
+        assertThrows(NumberFormatException.class, () -> csv.intField(3));
+    }
+}